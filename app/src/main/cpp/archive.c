@@ -219,6 +219,47 @@ static int archive_skip_to_index(archive_ctx *ctx, int index) {
     return ARCHIVE_FATAL;
 }
 
+// Distance from ctx to the nearest context before it, or to the archive start
+static int archive_ctx_coverage(archive_ctx *ctx) {
+    int prev = 0;
+    for (int i = 0; i < CTX_POOL_SIZE; i++) {
+        archive_ctx *other = ctx_pool[i];
+        if (!other || other == ctx)
+            continue;
+        if (other->next_index <= ctx->next_index && other->next_index > prev)
+            prev = other->next_index;
+    }
+    return ctx->next_index - prev;
+}
+
+// Remove a broken context from pool, it must be in use by caller
+static void archive_drop_ctx(archive_ctx *ctx) {
+    pthread_mutex_lock(&ctx_pool_mutex);
+    for (int i = 0; i < CTX_POOL_SIZE; i++) {
+        if (ctx_pool[i] == ctx) {
+            ctx_pool[i] = NULL;
+            break;
+        }
+    }
+    pthread_mutex_unlock(&ctx_pool_mutex);
+    archive_release_ctx(ctx);
+}
+
+// Return a context got from archive_get_ctx, one that did not fit in pool is freed
+static void archive_put_ctx(archive_ctx *ctx) {
+    int pooled = 0;
+    pthread_mutex_lock(&ctx_pool_mutex);
+    for (int i = 0; i < CTX_POOL_SIZE; i++) {
+        if (ctx_pool[i] == ctx) {
+            ctx->using = 0;
+            pooled = 1;
+            break;
+        }
+    }
+    pthread_mutex_unlock(&ctx_pool_mutex);
+    if (!pooled) archive_release_ctx(ctx);
+}
+
 static int archive_get_ctx(archive_ctx **ctxptr, int idx) {
     int ret;
     archive_ctx *ctx = NULL;
@@ -242,8 +283,10 @@ static int archive_get_ctx(archive_ctx **ctxptr, int idx) {
     if (!ctx) {
         archive_ctx *victimCtx = NULL;
         int victimIdx = 0;
+        int victimCoverage = 0;
         int replace = 1;
         ctx = archive_alloc_ctx();
+        if (!ctx) return ARCHIVE_FATAL;
         pthread_mutex_lock(&ctx_pool_mutex);
         for (int i = 0; i < CTX_POOL_SIZE; i++) {
             if (!ctx_pool[i]) {
@@ -253,12 +296,15 @@ static int archive_get_ctx(archive_ctx **ctxptr, int idx) {
             }
             if (ctx_pool[i]->using)
                 continue;
-            if (!victimCtx || ctx_pool[i]->next_index > victimCtx->next_index) {
+            // Later reads resume from idle contexts, evict the one that saves the least skipping
+            int coverage = archive_ctx_coverage(ctx_pool[i]);
+            if (!victimCtx || coverage < victimCoverage) {
                 victimCtx = ctx_pool[i];
                 victimIdx = i;
+                victimCoverage = coverage;
             }
         }
-        if (replace) ctx_pool[victimIdx] = ctx;
+        if (replace && victimCtx) ctx_pool[victimIdx] = ctx;
         pthread_mutex_unlock(&ctx_pool_mutex);
         if (replace) archive_release_ctx(victimCtx);
     }
@@ -266,8 +312,8 @@ static int archive_get_ctx(archive_ctx **ctxptr, int idx) {
     if (ret != idx) {
         ret = archive_errno(ctx->arc);
         LOGE("Skip to index failed: %s", archive_error_string(ctx->arc));
-        archive_release_ctx(ctx);
-        return ret;
+        archive_drop_ctx(ctx);
+        return ret ? ret : ARCHIVE_FATAL;
     }
     *ctxptr = ctx;
     return 0;
@@ -328,6 +374,20 @@ Java_com_hippo_ehviewer_jni_ArchiveKt_openArchive(JNIEnv *env, jclass thiz, jint
     return (int) entryCount;
 }
 
+static jobject archive_read_to_byte_buffer(JNIEnv *env, archive_ctx *ctx, entry *entry) {
+    void *addr = acquire_decode_buffer();
+    ssize_t bytes = archive_read_data(ctx->arc, addr, entry->size);
+    if (bytes == entry->size)
+        return (*env)->NewDirectByteBuffer(env, addr, entry->size);
+    if (bytes < 0) {
+        LOGE("%s%s", "Archive read failed: ", archive_error_string(ctx->arc));
+    } else {
+        LOGE("%s", "No enough data read, WTF?");
+    }
+    release_decode_buffer(addr);
+    return NULL;
+}
+
 JNIEXPORT jobject JNICALL
 Java_com_hippo_ehviewer_jni_ArchiveKt_extractToByteBuffer(JNIEnv *env, jclass thiz, jint index) {
     EH_UNUSED(env);
@@ -339,24 +399,65 @@ Java_com_hippo_ehviewer_jni_ArchiveKt_extractToByteBuffer(JNIEnv *env, jclass th
     } else {
         archive_ctx *ctx = NULL;
         if (!archive_get_ctx(&ctx, entry->index)) {
-            void *addr = acquire_decode_buffer();
-            ssize_t bytes = archive_read_data(ctx->arc, addr, size);
-            ctx->using = 0;
-            if (bytes == size) {
-                return (*env)->NewDirectByteBuffer(env, addr, size);
-            } else {
-                if (bytes < 0) {
-                    LOGE("%s%s", "Archive read failed: ", archive_error_string(ctx->arc));
-                } else {
-                    LOGE("%s", "No enough data read, WTF?");
-                }
-            }
-            release_decode_buffer(addr);
+            jobject buffer = archive_read_to_byte_buffer(env, ctx, entry);
+            archive_put_ctx(ctx);
+            return buffer;
         }
     }
     return 0;
 }
 
+static inline int compare_entry_index(const void *a, const void *b) {
+    return (*(entry **) a)->index - (*(entry **) b)->index;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_hippo_ehviewer_jni_ArchiveKt_extractRangeToByteBuffers(JNIEnv *env, jclass thiz, jint start, jint count) {
+    EH_UNUSED(thiz);
+    if (start < 0 || start >= entryCount)
+        count = 0;
+    else if (count > entryCount - start)
+        count = (jint) (entryCount - start);
+    // Each page holds a decode buffer until released, only the pooled ones are reused
+    if (count > MAX_PARALLEL_DECOMP)
+        count = MAX_PARALLEL_DECOMP;
+    jclass bufferClass = (*env)->FindClass(env, "java/nio/ByteBuffer");
+    jobjectArray buffers = (*env)->NewObjectArray(env, max(count, 0), bufferClass, NULL);
+    if (count <= 0) return buffers;
+
+    // Pages are sorted by name, read them in archive order to walk the archive only once
+    entry **sorted = malloc(count * sizeof(entry *));
+    for (int i = 0; i < count; i++)
+        sorted[i] = &entries[start + i];
+    qsort(sorted, count, sizeof(entry *), compare_entry_index);
+
+    archive_ctx *ctx = NULL;
+    for (int i = 0; i < count; i++) {
+        entry *entry = sorted[i];
+        jobject buffer = NULL;
+        if (entry->addr) {
+            buffer = (*env)->NewDirectByteBuffer(env, entry->addr, entry->size);
+        } else {
+            if (!ctx) {
+                if (archive_get_ctx(&ctx, entry->index)) break;
+            } else if (archive_skip_to_index(ctx, entry->index) != entry->index) {
+                LOGE("Skip to index failed: %s", archive_error_string(ctx->arc));
+                archive_drop_ctx(ctx);
+                ctx = NULL;
+                break;
+            }
+            buffer = archive_read_to_byte_buffer(env, ctx, entry);
+        }
+        if (buffer) {
+            (*env)->SetObjectArrayElement(env, buffers, (jsize) (entry - entries - start), buffer);
+            (*env)->DeleteLocalRef(env, buffer);
+        }
+    }
+    if (ctx) archive_put_ctx(ctx);
+    free(sorted);
+    return buffers;
+}
+
 JNIEXPORT void JNICALL
 Java_com_hippo_ehviewer_jni_ArchiveKt_closeArchive(JNIEnv *env, jclass thiz) {
     EH_UNUSED(env);
@@ -433,7 +534,7 @@ Java_com_hippo_ehviewer_jni_ArchiveKt_getFilename(JNIEnv *env, jclass thiz, jint
     if (ret)
         return NULL;
     jstring str = (*env)->NewStringUTF(env, archive_entry_pathname(ctx->entry));
-    ctx->using = 0;
+    archive_put_ctx(ctx);
     return str;
 }
 
@@ -447,7 +548,7 @@ Java_com_hippo_ehviewer_jni_ArchiveKt_extractToFd(JNIEnv *env, jclass thiz, jint
     ret = archive_get_ctx(&ctx, index);
     if (!ret) {
         ret = archive_read_data_into_fd(ctx->arc, fd);
-        ctx->using = 0;
+        archive_put_ctx(ctx);
     }
     return ret == ARCHIVE_OK;
 }
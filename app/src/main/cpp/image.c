@@ -17,6 +17,8 @@
  * EhViewer. If not, see <https://www.gnu.org/licenses/>.
  */
 
+#include <stdint.h>
+#include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
 
@@ -27,7 +29,7 @@
 #include <GLES3/gl3.h>
 #include <jni.h>
 
-#define TAG "ImageDecoder_wrapper"
+#define LOG_TAG "ImageDecoder_wrapper"
 
 #include "ehviewer.h"
 
@@ -122,6 +124,58 @@ bool copy_pixels(const void *src, int src_w, int src_h, int src_x, int src_y,
     return true;
 }
 
+// -1 unknown, 0 GLES2, 1 GLES3 or later
+static int unpack_subimage = -1;
+
+static bool has_unpack_subimage() {
+    if (unpack_subimage < 0) {
+        const char *version = (const char *) glGetString(GL_VERSION);
+        int major = 0;
+        if (version != NULL) sscanf(version, "OpenGL ES %d", &major);
+        unpack_subimage = major >= 3;
+        LOGI("%s%s", "Tile upload with row length unpacking: ", unpack_subimage ? "yes" : "no");
+    }
+    return unpack_subimage;
+}
+
+// Clip the tile to bitmap, the rest of texture is left undefined as before
+static bool clip_tile(int src_w, int src_h, int *src_x, int *src_y, int *dst_x, int *dst_y,
+                      int *width, int *height) {
+    if (*src_x < 0) {
+        *width += *src_x;
+        *dst_x -= *src_x;
+        *src_x = 0;
+    }
+    if (*src_y < 0) {
+        *height += *src_y;
+        *dst_y -= *src_y;
+        *src_y = 0;
+    }
+    if (*src_x + *width > src_w) *width = src_w - *src_x;
+    if (*src_y + *height > src_h) *height = src_h - *src_y;
+    return *width > 0 && *height > 0;
+}
+
+static void tex_image_direct(const void *pixels, AndroidBitmapInfo *info, bool init,
+                             int offset_x, int offset_y, int width, int height) {
+    bool is_f16 = info->format == ANDROID_BITMAP_FORMAT_RGBA_F16;
+    int bpp = is_f16 ? 8 : 4;
+    GLenum type = is_f16 ? GL_HALF_FLOAT : GL_UNSIGNED_BYTE;
+    if (init)
+        glTexImage2D(GL_TEXTURE_2D, 0, is_f16 ? GL_RGBA16F : GL_RGBA8, width, height, 0, GL_RGBA, type, NULL);
+    int dst_x = 0, dst_y = 0;
+    if (!clip_tile(info->width, info->height, &offset_x, &offset_y, &dst_x, &dst_y, &width, &height))
+        return;
+    // Let GL read the tile right out of bitmap
+    glPixelStorei(GL_UNPACK_ROW_LENGTH, info->stride / bpp);
+    glPixelStorei(GL_UNPACK_SKIP_PIXELS, offset_x);
+    glPixelStorei(GL_UNPACK_SKIP_ROWS, offset_y);
+    glTexSubImage2D(GL_TEXTURE_2D, 0, dst_x, dst_y, width, height, GL_RGBA, type, pixels);
+    glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
+    glPixelStorei(GL_UNPACK_SKIP_PIXELS, 0);
+    glPixelStorei(GL_UNPACK_SKIP_ROWS, 0);
+}
+
 JNIEXPORT void JNICALL
 Java_com_hippo_ehviewer_jni_ImageKt_nativeTexImage(JNIEnv *env, jclass clazz, jobject bitmap, jboolean init,
                                           jint offset_x, jint offset_y, jint width, jint height) {
@@ -131,6 +185,11 @@ Java_com_hippo_ehviewer_jni_ImageKt_nativeTexImage(JNIEnv *env, jclass clazz, jo
     void *pixels = NULL;
     AndroidBitmap_lockPixels(env, bitmap, &pixels);
     AndroidBitmap_getInfo(env, bitmap, &info);
+    if (has_unpack_subimage()) {
+        tex_image_direct(pixels, &info, init, offset_x, offset_y, width, height);
+        AndroidBitmap_unlockPixels(env, bitmap);
+        return;
+    }
     bool is_f16 = info.format == ANDROID_BITMAP_FORMAT_RGBA_F16;
     copy_pixels(pixels, info.width, info.height, offset_x, offset_y, tile_buffer, width, height, 0, 0, width, height, is_f16 ? 8 : 4);
     AndroidBitmap_unlockPixels(env, bitmap);
@@ -142,3 +201,66 @@ Java_com_hippo_ehviewer_jni_ImageKt_nativeTexImage(JNIEnv *env, jclass clazz, jo
                         is_f16 ? GL_HALF_FLOAT : GL_UNSIGNED_BYTE, tile_buffer);
     }
 }
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_ehviewer_jni_ImageKt_nativeDiffFrame(JNIEnv *env, jclass clazz, jobject frame, jobject last,
+                                                    jintArray dirty) {
+    AndroidBitmapInfo info, last_info;
+    AndroidBitmap_getInfo(env, frame, &info);
+    AndroidBitmap_getInfo(env, last, &last_info);
+    int width = (int) info.width;
+    int height = (int) info.height;
+    jint rect[4] = {0, 0, width, height};
+    if (info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 || last_info.format != info.format ||
+        last_info.width != info.width || last_info.height != info.height || last_info.stride != info.stride) {
+        (*env)->SetIntArrayRegion(env, dirty, 0, 4, rect);
+        return JNI_TRUE;
+    }
+
+    char *src = NULL;
+    char *dst = NULL;
+    AndroidBitmap_lockPixels(env, frame, (void **) &src);
+    AndroidBitmap_lockPixels(env, last, (void **) &dst);
+    size_t row_size = (size_t) width * 4;
+
+    // Rows changed
+    int top = -1, bottom = -1;
+    for (int y = 0; y < height; y++) {
+        if (memcmp(src + y * info.stride, dst + y * info.stride, row_size) != 0) {
+            if (top < 0) top = y;
+            bottom = y;
+        }
+    }
+    if (top < 0) {
+        AndroidBitmap_unlockPixels(env, last);
+        AndroidBitmap_unlockPixels(env, frame);
+        return JNI_FALSE;
+    }
+
+    // Columns changed within those rows
+    int left = width, right = 0;
+    for (int y = top; y <= bottom; y++) {
+        const uint32_t *a = (const uint32_t *) (src + y * info.stride);
+        const uint32_t *b = (const uint32_t *) (dst + y * info.stride);
+        int x = 0;
+        while (x < left && a[x] == b[x]) x++;
+        left = x;
+        x = width - 1;
+        while (x >= right && a[x] == b[x]) x--;
+        right = x + 1;
+    }
+
+    // Keep last frame in sync for the next diff
+    for (int y = top; y <= bottom; y++) {
+        memcpy(dst + y * info.stride + left * 4, src + y * info.stride + left * 4, (size_t) (right - left) * 4);
+    }
+    AndroidBitmap_unlockPixels(env, last);
+    AndroidBitmap_unlockPixels(env, frame);
+
+    rect[0] = left;
+    rect[1] = top;
+    rect[2] = right;
+    rect[3] = bottom + 1;
+    (*env)->SetIntArrayRegion(env, dirty, 0, 4, rect);
+    return JNI_TRUE;
+}
@@ -46,6 +46,7 @@ import com.hippo.ehviewer.download.DownloadManager
 import com.hippo.ehviewer.ui.EhActivity
 import com.hippo.ehviewer.ui.keepNoMediaFileStatus
 import com.hippo.ehviewer.widget.SearchDatabase
+import com.hippo.glgallery.DecodedPagePool
 import com.hippo.scene.SceneApplication
 import com.hippo.util.ReadableTime
 import com.hippo.util.isAtLeastP
@@ -126,6 +127,12 @@ class EhApplication :
         }
     }
 
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        DecodedPagePool.trimMemory(level)
+        EhDB.flushHistory()
+    }
+
     private suspend fun cleanupDownload() {
         runCatching {
             keepNoMediaFileStatus()
@@ -19,12 +19,14 @@ import android.content.Context
 import android.net.Uri
 import androidx.paging.PagingSource
 import androidx.room.Room.databaseBuilder
+import androidx.room.withTransaction
 import com.hippo.ehviewer.EhApplication.Companion.ehDatabase
 import com.hippo.ehviewer.client.data.GalleryInfo
 import com.hippo.ehviewer.dao.BasicDao
 import com.hippo.ehviewer.dao.DownloadDirname
 import com.hippo.ehviewer.dao.DownloadInfo
 import com.hippo.ehviewer.dao.DownloadLabel
+import com.hippo.ehviewer.dao.EH_DB_MIGRATIONS
 import com.hippo.ehviewer.dao.EhDatabase
 import com.hippo.ehviewer.dao.Filter
 import com.hippo.ehviewer.dao.HistoryInfo
@@ -32,320 +34,377 @@ import com.hippo.ehviewer.dao.LocalFavoriteInfo
 import com.hippo.ehviewer.dao.QuickSearch
 import com.hippo.ehviewer.download.DownloadManager
 import com.hippo.unifile.UniFile
+import com.hippo.util.BatchedWriter
+import com.hippo.util.launchIO
 import com.hippo.util.sendTo
-
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.seconds
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.delay
+
+/**
+ * Reads and single statement writes run directly without any lock, readers are not blocked by writers with WAL.
+ * Writes nobody waits for are queued and applied in batches, each batch in one transaction.
+ */
+@OptIn(DelicateCoroutinesApi::class)
 object EhDB {
+    private const val MAX_SQL_VARIABLES = 500
+    private val WHITESPACE = Regex("\\s+")
     private val db = ehDatabase
+    private val HISTORY_FLUSH_DELAY = 10.seconds
+
+    // Visits not written yet, the latest one of each gallery
+    private val pendingHistory = ConcurrentHashMap<Long, HistoryInfo>()
+    private val historyFlushScheduled = AtomicBoolean(false)
+
+    private val writer = BatchedWriter<Write>(
+        transaction = { body ->
+            val start = System.nanoTime()
+            db.withTransaction {
+                Stats.lockWaitNanos.addAndGet(System.nanoTime() - start)
+                body()
+            }
+        },
+        onBatch = { batch, nanos ->
+            Stats.writes.addAndGet(batch.size.toLong())
+            Stats.batches.incrementAndGet()
+            Stats.writeNanos.addAndGet(nanos)
+            // Completed even if the batch fails, so nobody waits forever
+            batch.forEach { it.done?.complete(Unit) }
+        },
+    ) {
+        Stats.queueNanos.addAndGet(System.nanoTime() - it.time)
+        it.block()
+    }
+
+    private class Write(val block: suspend () -> Unit, val done: CompletableDeferred<Unit>? = null) {
+        val time = System.nanoTime()
+    }
+
+    private fun enqueue(block: suspend () -> Unit) {
+        writer.send(Write(block))
+    }
+
+    /**
+     * Wait until all writes queued before are committed.
+     */
+    suspend fun awaitWrites() {
+        val done = CompletableDeferred<Unit>()
+        writer.send(Write({}, done))
+        done.await()
+    }
+
+    private inline fun <T> read(block: () -> T): T {
+        val start = System.nanoTime()
+        return block().also {
+            Stats.reads.incrementAndGet()
+            Stats.readNanos.addAndGet(System.nanoTime() - start)
+        }
+    }
+
+    private inline fun <T> write(block: () -> T): T {
+        val start = System.nanoTime()
+        return block().also {
+            Stats.writes.incrementAndGet()
+            Stats.writeNanos.addAndGet(System.nanoTime() - start)
+        }
+    }
+
+    /**
+     * Counters of database access since start, durations in nanoseconds, dumped with the logs.
+     */
+    object Stats {
+        val reads = AtomicLong()
+        val readNanos = AtomicLong()
+        val writes = AtomicLong()
+        val writeNanos = AtomicLong()
+
+        // Transactions of queued writes
+        val batches = AtomicLong()
+
+        // Time queued writes waited for their batch
+        val queueNanos = AtomicLong()
+
+        // Time batches waited for the write lock
+        val lockWaitNanos = AtomicLong()
+
+        override fun toString() = "reads=$reads readNanos=$readNanos writes=$writes writeNanos=$writeNanos " +
+            "batches=$batches queueNanos=$queueNanos lockWaitNanos=$lockWaitNanos"
+    }
 
     // Fix state
-    @get:Synchronized
     val allDownloadInfo: List<DownloadInfo>
-        get() = db.downloadsDao().list().onEach {
+        get() = read { db.downloadsDao().list() }.onEach {
             if (it.state == DownloadInfo.STATE_WAIT || it.state == DownloadInfo.STATE_DOWNLOAD) {
                 it.state = DownloadInfo.STATE_NONE
             }
         }
 
-    @Synchronized
     fun updateDownloadInfo(downloadInfos: List<DownloadInfo>) {
-        val dao = db.downloadsDao()
-        dao.update(downloadInfos)
+        enqueue { db.downloadsDao().update(downloadInfos) }
     }
 
-    @Synchronized
     fun putDownloadInfo(downloadInfo: DownloadInfo) {
-        db.downloadsDao().run {
-            if (load(downloadInfo.gid) != null) {
-                update(downloadInfo)
-            } else {
-                insert(downloadInfo)
-            }
-        }
+        enqueue { db.downloadsDao().upsert(downloadInfo) }
     }
 
-    @Synchronized
     fun removeDownloadInfo(downloadInfo: DownloadInfo) {
-        db.downloadsDao().delete(downloadInfo)
+        enqueue { db.downloadsDao().delete(downloadInfo) }
     }
 
-    @get:Synchronized
     val allDownloadDirname: List<DownloadDirname>
-        get() = db.downloadDirnameDao().list()
-
-    @Synchronized
-    fun getDownloadDirname(gid: Long): String? {
-        val dao = db.downloadDirnameDao()
-        val raw = dao.load(gid)
-        return raw?.dirname
-    }
+        get() = read { db.downloadDirnameDao().list() }
 
-    @Synchronized
     fun putDownloadDirname(gid: Long, dirname: String?) {
-        val dao = db.downloadDirnameDao()
-        var raw = dao.load(gid)
-        if (raw != null) {
-            raw.dirname = dirname
-            dao.update(raw)
-        } else {
-            raw = DownloadDirname(gid, dirname)
-            dao.insert(raw)
-        }
+        enqueue { db.downloadDirnameDao().upsert(DownloadDirname(gid, dirname)) }
     }
 
-    @Synchronized
     fun removeDownloadDirname(gid: Long) {
-        val dao = db.downloadDirnameDao()
-        dao.deleteByKey(gid)
+        enqueue { db.downloadDirnameDao().deleteByKey(gid) }
     }
 
-    @get:Synchronized
     val allDownloadLabelList: List<DownloadLabel>
-        get() = db.downloadLabelDao().list()
+        get() = read { db.downloadLabelDao().list() }
 
-    @Synchronized
     fun addDownloadLabel(label: String): DownloadLabel {
         val dao = db.downloadLabelDao()
         val raw = DownloadLabel()
         raw.label = label
         raw.time = System.currentTimeMillis()
-        raw.id = dao.insert(raw)
+        raw.id = write { dao.insert(raw) }
         return raw
     }
 
-    @Synchronized
     fun addDownloadLabel(raw: DownloadLabel): DownloadLabel {
         // Reset id
         raw.id = null
         val dao = db.downloadLabelDao()
-        raw.id = dao.insert(raw)
+        raw.id = write { dao.insert(raw) }
         return raw
     }
 
-    @Synchronized
     fun updateDownloadLabel(raw: DownloadLabel?) {
-        val dao = db.downloadLabelDao()
-        dao.update(raw!!)
+        raw!!
+        enqueue { db.downloadLabelDao().update(raw) }
     }
 
-    @Synchronized
     fun moveDownloadLabel(fromPosition: Int, toPosition: Int) {
         if (fromPosition == toPosition) {
             return
         }
-        val reverse = fromPosition > toPosition
-        val offset = if (reverse) toPosition else fromPosition
-        val limit = if (reverse) fromPosition - toPosition + 1 else toPosition - fromPosition + 1
-        val dao = db.downloadLabelDao()
-        val list = dao.list(offset, limit)
-        val step = if (reverse) 1 else -1
-        val start = if (reverse) limit - 1 else 0
-        val end = if (reverse) 0 else limit - 1
-        val toTime = list[end].time
-        var i = end
-        while (if (reverse) i < start else i > 0) {
-            val aTime = list[i].time
-            val bTime = list[i + step].time
-            list[i].time = if (aTime == bTime) bTime + step else bTime
-            i += step
+        enqueue {
+            val dao = db.downloadLabelDao()
+            val (offset, limit) = moveRange(fromPosition, toPosition)
+            val list = dao.list(offset, limit)
+            moveTime(list, fromPosition > toPosition, { it.time }, { item, time -> item.time = time })
+            dao.update(list)
         }
-        list[start].time = toTime
-        dao.update(list)
     }
 
-    @Synchronized
     fun removeDownloadLabel(raw: DownloadLabel?) {
-        val dao = db.downloadLabelDao()
-        dao.delete(raw!!)
+        raw!!
+        enqueue { db.downloadLabelDao().delete(raw) }
     }
 
-    @get:Synchronized
-    val allLocalFavorites: List<GalleryInfo>
-        get() {
-            val dao = db.localFavoritesDao()
-            val list = dao.list()
-            return ArrayList<GalleryInfo>(list)
+    /**
+     * Local favorites with all words of [keyword] as a prefix of some word
+     * in title, japanese title, uploader or tags, all of them if [keyword] is blank.
+     * CJK text has no spaces between words, a [keyword] with it is matched as a substring instead.
+     */
+    fun localFavoritesLazyList(keyword: String?): PagingSource<Int, LocalFavoriteInfo> {
+        val dao = db.localFavoritesDao()
+        if (keyword != null && keyword.isNotBlank() && keyword.any { it.isCJK() }) {
+            val pattern = keyword.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+            return dao.listLazyLike("%$pattern%")
         }
+        // Quote each word so that FTS operators in it are taken literally
+        val query = keyword?.split(WHITESPACE)?.map { it.replace("\"", "") }?.filter { it.isNotEmpty() }
+            ?.joinToString(" ") { "\"$it*\"" }
+        return if (query.isNullOrEmpty()) dao.listLazy() else dao.listLazy(query)
+    }
 
-    @Synchronized
-    fun searchLocalFavorites(query: String): List<GalleryInfo> {
-        val dao = db.localFavoritesDao()
-        val list = dao.list("%$query%")
-        return ArrayList<GalleryInfo>(list)
+    // The unicode61 tokenizer takes a run of these as one token
+    private fun Char.isCJK(): Boolean = when (Character.UnicodeScript.of(code)) {
+        Character.UnicodeScript.HAN,
+        Character.UnicodeScript.HIRAGANA,
+        Character.UnicodeScript.KATAKANA,
+        Character.UnicodeScript.HANGUL,
+        -> true
+        else -> false
     }
 
-    @Synchronized
     fun removeLocalFavorites(gid: Long) {
-        db.localFavoritesDao().deleteByKey(gid)
+        write { db.localFavoritesDao().delete(listOf(gid)) }
     }
 
-    @Synchronized
     fun removeLocalFavorites(gidArray: LongArray) {
         val dao = db.localFavoritesDao()
-        for (gid in gidArray) {
-            dao.deleteByKey(gid)
-        }
+        // Keep under SQLite host parameter limit
+        write { db.runInTransaction { gidArray.asList().chunked(MAX_SQL_VARIABLES).forEach { dao.delete(it) } } }
     }
 
-    @Synchronized
     fun containLocalFavorites(gid: Long): Boolean {
         val dao = db.localFavoritesDao()
-        return dao.contains(gid)
+        return read { dao.contains(gid) }
     }
 
-    @Synchronized
-    fun putLocalFavorites(galleryInfo: GalleryInfo) {
+    /**
+     * @return gids in [gidList] which are in local favorites
+     */
+    fun containLocalFavorites(gidList: List<Long>): Set<Long> {
         val dao = db.localFavoritesDao()
-        if (null == dao.load(galleryInfo.gid)) {
-            val info: LocalFavoriteInfo
-            if (galleryInfo is LocalFavoriteInfo) {
-                info = galleryInfo
-            } else {
-                info = LocalFavoriteInfo(galleryInfo)
-                info.time = System.currentTimeMillis()
-            }
-            dao.insert(info)
-        }
+        // Keep under SQLite host parameter limit
+        return read { gidList.chunked(MAX_SQL_VARIABLES).flatMapTo(HashSet()) { dao.contains(it) } }
+    }
+
+    fun putLocalFavorites(galleryInfo: GalleryInfo) {
+        putLocalFavorites(listOf(galleryInfo))
     }
 
-    @Synchronized
     fun putLocalFavorites(galleryInfoList: List<GalleryInfo>) {
-        for (gi in galleryInfoList) {
-            putLocalFavorites(gi)
+        val list = galleryInfoList.map { galleryInfo ->
+            galleryInfo as? LocalFavoriteInfo ?: LocalFavoriteInfo(galleryInfo).apply { time = System.currentTimeMillis() }
         }
+        write { db.localFavoritesDao().insertIfAbsent(list) }
     }
 
-    @get:Synchronized
     val allQuickSearch: List<QuickSearch>
-        get() {
-            val dao = db.quickSearchDao()
-            return dao.list()
-        }
+        get() = read { db.quickSearchDao().list() }
 
-    @Synchronized
     fun insertQuickSearch(quickSearch: QuickSearch) {
         val dao = db.quickSearchDao()
         quickSearch.id = null
         quickSearch.time = System.currentTimeMillis()
-        quickSearch.id = dao.insert(quickSearch)
+        quickSearch.id = write { dao.insert(quickSearch) }
     }
 
-    @Synchronized
     fun importQuickSearch(quickSearchList: List<QuickSearch?>) {
-        val dao = db.quickSearchDao()
-        for (quickSearch in quickSearchList) {
-            dao.insert(quickSearch!!)
-        }
+        write { db.quickSearchDao().insert(quickSearchList.requireNoNulls()) }
     }
 
-    @Synchronized
     fun deleteQuickSearch(quickSearch: QuickSearch?) {
         quickSearch ?: return
-        val dao = db.quickSearchDao()
-        dao.delete(quickSearch)
+        write { db.quickSearchDao().delete(quickSearch) }
     }
 
-    @Synchronized
     fun moveQuickSearch(fromPosition: Int, toPosition: Int) {
         if (fromPosition == toPosition) {
             return
         }
+        val dao = db.quickSearchDao()
+        write {
+            db.runInTransaction {
+                val (offset, limit) = moveRange(fromPosition, toPosition)
+                val list = dao.list(offset, limit)
+                moveTime(list, fromPosition > toPosition, { it.time }, { item, time -> item.time = time })
+                dao.update(list)
+            }
+        }
+    }
+
+    // Offset and limit of rows between two positions
+    private fun moveRange(fromPosition: Int, toPosition: Int): Pair<Int, Int> {
         val reverse = fromPosition > toPosition
         val offset = if (reverse) toPosition else fromPosition
         val limit = if (reverse) fromPosition - toPosition + 1 else toPosition - fromPosition + 1
-        val dao = db.quickSearchDao()
-        val list = dao.list(offset, limit)
+        return offset to limit
+    }
+
+    // Shift times in list ordered by time so that the moved item takes the place of the other end
+    private inline fun <T> moveTime(list: List<T>, reverse: Boolean, getTime: (T) -> Long, setTime: (T, Long) -> Unit) {
+        val limit = list.size
         val step = if (reverse) 1 else -1
         val start = if (reverse) limit - 1 else 0
         val end = if (reverse) 0 else limit - 1
-        val toTime = list[end].time
+        val toTime = getTime(list[end])
         var i = end
         while (if (reverse) i < start else i > 0) {
-            val aTime = list[i].time
-            val bTime = list[i + step].time
-            list[i].time = if (aTime == bTime) bTime + step else bTime
+            val aTime = getTime(list[i])
+            val bTime = getTime(list[i + step])
+            setTime(list[i], if (aTime == bTime) bTime + step else bTime)
             i += step
         }
-        list[start].time = toTime
-        dao.update(list)
+        setTime(list[start], toTime)
     }
 
-    @get:Synchronized
     val historyLazyList: PagingSource<Int, HistoryInfo>
         get() = db.historyDao().listLazy()
 
-    @Synchronized
+    /**
+     * Visits are kept in memory and written by [flushHistory], at the latest [HISTORY_FLUSH_DELAY] later.
+     */
     fun putHistoryInfo(galleryInfo: GalleryInfo) {
-        val dao = db.historyDao()
         val info = galleryInfo as? HistoryInfo ?: HistoryInfo(galleryInfo)
         info.time = System.currentTimeMillis()
-        if (null != dao.load(info.gid)) {
-            dao.update(info)
-        } else {
-            dao.insert(info)
+        pendingHistory[info.gid] = info
+        if (historyFlushScheduled.compareAndSet(false, true)) {
+            launchIO {
+                delay(HISTORY_FLUSH_DELAY)
+                flushHistory()
+            }
         }
     }
 
-    @Synchronized
+    /**
+     * Write buffered visits with one upsert transaction, so history lists are invalidated once.
+     */
+    fun flushHistory() {
+        historyFlushScheduled.set(false)
+        val list = pendingHistory.keys.mapNotNull { pendingHistory.remove(it) }
+        if (list.isNotEmpty()) enqueue { db.historyDao().upsert(list) }
+    }
+
     fun updateHistoryFavSlot(gid: Long, slot: Int) {
-        val dao = db.historyDao()
-        val info = dao.load(gid)
-        if (null != info) {
-            info.favoriteSlot = slot
-            dao.update(info)
-        }
+        // Buffered visit may have been taken by a flush meanwhile, update the row too
+        pendingHistory[gid]?.favoriteSlot = slot
+        enqueue { db.historyDao().updateFavoriteSlot(gid, slot) }
     }
 
-    @Synchronized
     fun putHistoryInfo(historyInfoList: List<HistoryInfo>) {
-        val dao = db.historyDao()
-        for (info in historyInfoList) {
-            if (null == dao.load(info.gid)) {
-                dao.insert(info)
-            }
-        }
+        enqueue { db.historyDao().insertIfAbsent(historyInfoList) }
     }
 
-    @Synchronized
     fun deleteHistoryInfo(info: HistoryInfo?) {
-        val dao = db.historyDao()
-        dao.delete(info!!)
+        info!!
+        pendingHistory.remove(info.gid)
+        enqueue { db.historyDao().delete(info) }
     }
 
-    @Synchronized
     fun clearHistoryInfo() {
-        val dao = db.historyDao()
-        dao.deleteAll()
+        pendingHistory.clear()
+        enqueue { db.historyDao().deleteAll() }
     }
 
-    @get:Synchronized
     val allFilter: List<Filter>
-        get() = db.filterDao().list()
-
-    @Synchronized
-    fun addFilter(filter: Filter): Boolean {
-        val existFilter: Filter? = try {
-            db.filterDao().load(filter.text!!, filter.mode)
-        } catch (_: Exception) {
-            null
-        }
-        return if (existFilter == null) {
-            filter.id = null
-            filter.id = db.filterDao().insert(filter)
-            true
-        } else {
-            false
+        get() = read { db.filterDao().list() }
+
+    fun addFilter(filter: Filter): Boolean = write {
+        db.runInTransaction<Boolean> {
+            val existFilter: Filter? = try {
+                db.filterDao().load(filter.text!!, filter.mode)
+            } catch (_: Exception) {
+                null
+            }
+            if (existFilter == null) {
+                filter.id = null
+                filter.id = db.filterDao().insert(filter)
+                true
+            } else {
+                false
+            }
         }
     }
 
-    @Synchronized
     fun deleteFilter(filter: Filter) {
-        db.filterDao().delete(filter)
+        write { db.filterDao().delete(filter) }
     }
 
-    @Synchronized
     fun triggerFilter(filter: Filter) {
         filter.enable = filter.enable?.not() == true
-        db.filterDao().update(filter)
+        write { db.filterDao().update(filter) }
     }
 
     private fun <T> copyDao(from: BasicDao<T>, to: BasicDao<T>) {
@@ -353,14 +412,15 @@ object EhDB {
         for (item in list) to.insert(item)
     }
 
-    @Synchronized
-    fun exportDB(context: Context, uri: Uri): Boolean {
+    suspend fun exportDB(context: Context, uri: Uri): Boolean {
         val ehExportName = "eh.export.db"
+        flushHistory()
+        awaitWrites()
         runCatching {
             // Delete old export db
             context.deleteDatabase(ehExportName)
             val newDb =
-                databaseBuilder(context, EhDatabase::class.java, ehExportName).build()
+                databaseBuilder(context, EhDatabase::class.java, ehExportName).addMigrations(*EH_DB_MIGRATIONS).build()
 
             // Copy data to a export db
             copyDao(db.downloadsDao(), newDb.downloadsDao())
@@ -387,12 +447,11 @@ object EhDB {
     /**
      * @return error string, null for no error
      */
-    @Synchronized
-    fun importDB(context: Context, uri: Uri): String? {
+    suspend fun importDB(context: Context, uri: Uri): String? {
         val tmpDBName = "tmp.db"
         runCatching {
             val oldDB = databaseBuilder(context, EhDatabase::class.java, tmpDBName)
-                .createFromInputStream { context.contentResolver.openInputStream(uri) }.build()
+                .createFromInputStream { context.contentResolver.openInputStream(uri) }.addMigrations(*EH_DB_MIGRATIONS).build()
             // Download label
             val manager = DownloadManager
             runCatching {
@@ -426,9 +485,7 @@ object EhDB {
             }
             // LocalFavorites
             runCatching {
-                oldDB.localFavoritesDao().list().forEach {
-                    putLocalFavorites(it)
-                }
+                putLocalFavorites(oldDB.localFavoritesDao().list())
             }
             // Filter
             runCatching {
@@ -78,6 +78,8 @@ object Settings {
     private const val DEFAULT_REQUEST_NEWS = false
     private const val KEY_HIDE_HV_EVENTS = "hide_hv_events"
     private const val DEFAULT_HIDE_HV_EVENTS = false
+    private const val KEY_API_CONCURRENCY = "api_concurrency"
+    private const val DEFAULT_API_CONCURRENCY = 3
     val SIGN_IN_REQUIRED = arrayOf(
         KEY_GALLERY_SITE,
         KEY_IMAGE_LIMITS,
@@ -139,6 +141,8 @@ object Settings {
     private const val DEFAULT_MEDIA_SCAN = false
     const val KEY_MULTI_THREAD_DOWNLOAD = "download_thread"
     private const val DEFAULT_MULTI_THREAD_DOWNLOAD = 3
+    const val KEY_CONCURRENT_GALLERY_DOWNLOAD = "download_gallery_concurrency"
+    private const val DEFAULT_CONCURRENT_GALLERY_DOWNLOAD = 2
     const val KEY_DOWNLOAD_DELAY = "download_delay_2"
     private const val DEFAULT_DOWNLOAD_DELAY = 1000
     private const val KEY_DOWNLOAD_TIMEOUT = "download_timeout"
@@ -423,6 +427,10 @@ object Settings {
     val previewNum: Int
         get() = getInt(KEY_PREVIEW_NUM, DEFAULT_PREVIEW_NUM)
 
+    // Max gdata requests in flight when filling a gallery list
+    val apiConcurrency: Int
+        get() = getIntFromStr(KEY_API_CONCURRENCY, DEFAULT_API_CONCURRENCY).coerceAtLeast(1)
+
     val previewSize: Int
         get() = dip2px(40 * getInt(KEY_PREVIEW_SIZE, DEFAULT_PREVIEW_SIZE))
 
@@ -579,6 +587,9 @@ object Settings {
     val downloadThreadCount: Int
         get() = getIntFromStr(KEY_MULTI_THREAD_DOWNLOAD, DEFAULT_MULTI_THREAD_DOWNLOAD)
 
+    val concurrentGalleryDownload: Int
+        get() = getIntFromStr(KEY_CONCURRENT_GALLERY_DOWNLOAD, DEFAULT_CONCURRENT_GALLERY_DOWNLOAD)
+
     val downloadDelay: Int
         get() = getIntFromStr(KEY_DOWNLOAD_DELAY, DEFAULT_DOWNLOAD_DELAY)
 
@@ -15,6 +15,7 @@
  */
 package com.hippo.ehviewer.client
 
+import com.hippo.ehviewer.client.data.GalleryInfo
 import com.hippo.util.launchIO
 import com.hippo.util.withUIContext
 import java.io.File
@@ -52,8 +53,9 @@ object EhClient {
         METHOD_GET_GALLERY_DETAIL -> EhEngine.getGalleryDetail(
             params[0] as String,
         )
-        METHOD_GET_PREVIEW_SET -> EhEngine.getPreviewSet(
-            params[0] as String,
+        METHOD_GET_PREVIEW_SET -> PreviewSetRepository.get(
+            params[0] as GalleryInfo,
+            params[1] as Int,
         )
         METHOD_GET_RATE_GALLERY -> EhEngine.rateGallery(
             params[0] as Long,
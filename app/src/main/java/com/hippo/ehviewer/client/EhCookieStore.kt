@@ -20,7 +20,8 @@ import com.hippo.ehviewer.EhApplication
 import com.hippo.network.CookieDatabase
 import com.hippo.network.CookieSet
 import com.hippo.util.launchIO
-import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.regex.Pattern
 import kotlinx.coroutines.DelicateCoroutinesApi
 import kotlinx.coroutines.sync.Mutex
@@ -34,7 +35,12 @@ import okhttp3.HttpUrl.Companion.toHttpUrl
 object EhCookieStore : CookieJar {
     private val cookieManager = CookieManager.getInstance()
     private val db: CookieDatabase = CookieDatabase(EhApplication.application, "okhttp3-cookie.db")
-    private val map: MutableMap<String, CookieSet> = db.allCookies
+
+    // Published copy on write, readers never lock
+    @Volatile
+    private var map: Map<String, CookieSet> = db.allCookies
+    private val hostCookies = ConcurrentHashMap<String, HostCookies>()
+    private val removingExpired = AtomicBoolean()
     private val updateLock = Mutex()
     const val KEY_CLOUDFLARE = "cf_clearance"
     const val KEY_HATH_PERKS = "hath_perks"
@@ -81,11 +87,9 @@ object EhCookieStore : CookieJar {
             var toAdd: Cookie? = null
             var toUpdate: Cookie? = null
             var toRemove: Cookie? = null
-            var set = map[cookie.domain]
-            if (set == null) {
-                set = CookieSet()
-                map[cookie.domain] = set
-            }
+            val map = HashMap(map)
+            val set = map[cookie.domain]?.copy() ?: CookieSet()
+            map[cookie.domain] = set
             if (cookie.expiresAt <= System.currentTimeMillis()) {
                 toRemove = set.remove(cookie)
                 // If the cookie is not persistent, it's not in database
@@ -104,6 +108,8 @@ object EhCookieStore : CookieJar {
                     toUpdate = null
                 }
             }
+            if (set.isEmpty()) map.remove(cookie.domain)
+            this.map = map
             if (toRemove != null) {
                 db.remove(toRemove)
             }
@@ -137,28 +143,99 @@ object EhCookieStore : CookieJar {
         return null
     }
 
-    @Synchronized
-    fun getCookies(url: HttpUrl): List<Cookie> {
+    /**
+     * Cookies matching the host of a url, sorted and valid until [expiresAt].
+     * Stale once [map] is replaced.
+     */
+    private class HostCookies(val map: Map<String, CookieSet>, val cookies: List<Cookie>, val expiresAt: Long, private val tips: Cookie?) {
+        // Cookies of the same path and secure flag match the same urls, one of each is checked
+        private val scopes = cookies.distinctBy { it.path to it.secure }
+
+        // Most cookies are set for "/", no need to check path then
+        private val matchesAnyPath = scopes.all { it.path == "/" && !it.secure }
+        private val requestCookies = withTips(cookies)
+
+        // Lists keyed by the scopes a url matches
+        private val byScopes = ConcurrentHashMap<Long, List<Cookie>>()
+
+        // The tips cookie replaces the stored one in requests
+        private fun withTips(list: List<Cookie>): List<Cookie> = tips?.let { tips -> list.filter { it.name != tips.name } + tips } ?: list
+
+        fun get(url: HttpUrl, forRequest: Boolean): List<Cookie> {
+            if (matchesAnyPath) return if (forRequest) requestCookies else cookies
+            if (scopes.size >= Long.SIZE_BITS - 1) {
+                val matched = cookies.filter { it.matches(url) }
+                return if (forRequest) withTips(matched) else matched
+            }
+            var mask = 0L
+            scopes.forEachIndexed { i, scope -> if (scope.matches(url)) mask = mask or (1L shl i) }
+            val key = (mask shl 1) or if (forRequest) 1L else 0L
+            return byScopes.getOrPut(key) {
+                val matched = cookies.filter { it.matches(url) }
+                if (forRequest) withTips(matched) else matched
+            }
+        }
+    }
+
+    private fun getHostCookies(url: HttpUrl): HostCookies {
+        val now = System.currentTimeMillis()
+        val map = map
+        var host = hostCookies[url.host]
+        if (host == null || host.map !== map || host.expiresAt <= now) {
+            host = collectHostCookies(url, map, now)
+            hostCookies[url.host] = host
+        }
+        return host
+    }
+
+    fun getCookies(url: HttpUrl): List<Cookie> = getHostCookies(url).get(url, false)
+
+    private fun collectHostCookies(url: HttpUrl, map: Map<String, CookieSet>, now: Long): HostCookies {
         val accepted: MutableList<Cookie> = ArrayList()
-        val expired: MutableList<Cookie> = ArrayList()
+        var hasExpired = false
         for ((domain, cookieSet) in map) {
             if (domainMatch(url, domain)) {
-                cookieSet[url, accepted, expired]
-            }
-        }
-        for (cookie in expired) {
-            if (cookie.persistent) {
-                launchIO {
-                    db.remove(cookie)
+                for (cookie in cookieSet.cookies) {
+                    if (cookie.expiresAt <= now) {
+                        hasExpired = true
+                    } else if (!cookie.hostOnly || url.host == cookie.domain) {
+                        accepted.add(cookie)
+                    }
                 }
             }
         }
+        if (hasExpired) removeExpired()
 
         // RFC 6265 Section-5.4 step 2, sort the cookie-list
         // Cookies with longer paths are listed before cookies with shorter paths.
         // Ignore creation-time, we don't store them.
         accepted.sortWith { o1: Cookie, o2: Cookie -> o2.path.length - o1.path.length }
-        return accepted
+        val tips = sTipsCookie.takeIf { domainMatch(url, EhUrl.DOMAIN_E) }
+        return HostCookies(map, accepted, accepted.minOfOrNull { it.expiresAt } ?: Long.MAX_VALUE, tips)
+    }
+
+    private fun removeExpired() {
+        if (!removingExpired.compareAndSet(false, true)) return
+        launchIO {
+            updateLock.withLock {
+                val now = System.currentTimeMillis()
+                val map = HashMap(map)
+                map.entries.forEach { entry ->
+                    val expired = entry.value.cookies.filter { it.expiresAt <= now }
+                    if (expired.isNotEmpty()) {
+                        val set = entry.value.copy()
+                        expired.forEach {
+                            set.remove(it)
+                            if (it.persistent) db.remove(it)
+                        }
+                        entry.setValue(set)
+                    }
+                }
+                map.values.removeAll { it.isEmpty() }
+                this@EhCookieStore.map = map
+                removingExpired.set(false)
+            }
+        }
     }
 
     /**
@@ -166,7 +243,8 @@ object EhCookieStore : CookieJar {
      */
     suspend fun clear() {
         updateLock.withLock {
-            map.clear()
+            map = emptyMap()
+            hostCookies.clear()
             db.clear()
         }
     }
@@ -281,26 +359,7 @@ object EhCookieStore : CookieJar {
         return saved
     }
 
-    override fun loadForRequest(url: HttpUrl): List<Cookie> {
-        val cookies = getCookies(url)
-        val checkTips = domainMatch(url, EhUrl.DOMAIN_E)
-        return if (checkTips) {
-            val result: MutableList<Cookie> = ArrayList(cookies.size + 1)
-            // Add all but skip some
-            for (cookie in cookies) {
-                val name = cookie.name
-                if (KEY_CONTENT_WARNING == name) {
-                    continue
-                }
-                result.add(cookie)
-            }
-            // Add some
-            result.add(sTipsCookie)
-            Collections.unmodifiableList(result)
-        } else {
-            cookies
-        }
-    }
+    override fun loadForRequest(url: HttpUrl): List<Cookie> = getHostCookies(url).get(url, true)
 
     override fun saveFromResponse(url: HttpUrl, cookies: List<Cookie>) {
         for (cookie in cookies) {
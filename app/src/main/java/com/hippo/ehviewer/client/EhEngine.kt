@@ -15,7 +15,9 @@
  */
 package com.hippo.ehviewer.client
 
+import android.os.SystemClock
 import android.util.Log
+import androidx.collection.lruCache
 import com.hippo.ehviewer.AppConfig
 import com.hippo.ehviewer.EhApplication
 import com.hippo.ehviewer.EhApplication.Companion.application
@@ -57,6 +59,9 @@ import kotlin.math.ceil
 import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import okhttp3.FormBody
 import okhttp3.Headers
 import okhttp3.MediaType
@@ -67,6 +72,12 @@ import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.asRequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.coroutines.executeAsync
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.Source
+import okio.blackholeSink
+import okio.buffer
 import org.json.JSONArray
 import org.json.JSONObject
 import org.jsoup.Jsoup
@@ -75,6 +86,9 @@ private val okHttpClient = EhApplication.okHttpClient
 private val MEDIA_TYPE_JSON: MediaType = "application/json; charset=utf-8".toMediaType()
 private const val TAG = "EhEngine"
 private const val MAX_REQUEST_SIZE = 25
+private const val STREAM_HEAD_LIMIT = 128 * 1024L
+private const val GDATA_CACHE_TIME = 5 * 60 * 1000L // ms
+private val gdataCache = lruCache<Long, Pair<Long, GalleryApiParser.Result>>(500)
 private val MEDIA_TYPE_JPEG: MediaType = "image/jpeg".toMediaType()
 private var sEhFilter = EhFilter
 
@@ -133,6 +147,39 @@ private suspend inline fun <T> Request.Builder.executeAndParsingWith(block: Stri
     }.getOrThrow()
 }
 
+// Keeps the head of a streamed body for error handling
+private class HeadRecordingSource(source: Source) : ForwardingSource(source) {
+    private val head = Buffer()
+    private var recorded = 0L
+
+    override fun read(sink: Buffer, byteCount: Long): Long {
+        val read = super.read(sink, byteCount)
+        if (read > 0) {
+            val keep = minOf(read, STREAM_HEAD_LIMIT - recorded)
+            if (keep > 0) sink.copyTo(head, sink.size - read, keep)
+            recorded += read
+        }
+        return read
+    }
+
+    // Whole body if it fits, otherwise only its head
+    fun body(source: BufferedSource): String {
+        if (recorded <= STREAM_HEAD_LIMIT) source.readAll(blackholeSink())
+        return head.snapshot().utf8()
+    }
+}
+
+// Parsers stream the body, error pages like 503 are small enough to be seen whole
+private suspend inline fun <T> Request.Builder.executeAndStreamingWith(block: BufferedSource.() -> T): T = okHttpClient.newCall(this.build()).executeAsync().use { response ->
+    val recorder = HeadRecordingSource(response.body.source())
+    val source = recorder.buffer()
+    runCatching {
+        block(source)
+    }.onFailure {
+        rethrowExactly(response.code, recorder.body(source), it)
+    }.getOrThrow()
+}
+
 object EhEngine {
     suspend fun getOriginalImageUrl(url: String, referer: String?): String {
         Log.d(TAG, url)
@@ -202,7 +249,7 @@ object EhEngine {
     suspend fun getGalleryList(url: String): GalleryListParser.Result {
         val referer = EhUrl.referer
         Log.d(TAG, url)
-        return EhRequestBuilder(url, referer).executeAndParsingWith(GalleryListParser::parse)
+        return EhRequestBuilder(url, referer).executeAndStreamingWith(GalleryListParser::parse)
             .apply { fillGalleryList(galleryInfoList, url, true) }
     }
 
@@ -210,16 +257,27 @@ object EhEngine {
         galleryInfoList: List<GalleryInfo>,
         referer: String,
     ): List<GalleryInfo> {
-        val requestItems: MutableList<GalleryInfo> = ArrayList(MAX_REQUEST_SIZE)
-        var i = 0
-        val size = galleryInfoList.size
-        while (i < size) {
-            requestItems.add(galleryInfoList[i])
-            if (requestItems.size == MAX_REQUEST_SIZE || i == size - 1) {
-                doFillGalleryListByApi(requestItems, referer)
-                requestItems.clear()
+        // Galleries seen a moment ago skip the API
+        val now = SystemClock.elapsedRealtime()
+        val requestItems = galleryInfoList.filter { gi ->
+            val cached = gdataCache[gi.gid]?.takeIf { now - it.first < GDATA_CACHE_TIME }
+            cached?.second?.fill(gi)
+            cached == null
+        }
+        if (requestItems.isEmpty()) return galleryInfoList
+        val itemMap = requestItems.groupBy { it.gid }
+        val semaphore = Semaphore(Settings.apiConcurrency)
+        coroutineScope {
+            requestItems.chunked(MAX_REQUEST_SIZE).forEach { chunk ->
+                launch {
+                    val results = semaphore.withPermit { doFillGalleryListByApi(chunk, referer) }
+                    val time = SystemClock.elapsedRealtime()
+                    results.forEach { result ->
+                        gdataCache.put(result.gid, time to result)
+                        itemMap[result.gid]?.forEach { result.fill(it) }
+                    }
+                }
             }
-            i++
         }
         return galleryInfoList
     }
@@ -227,7 +285,7 @@ object EhEngine {
     private suspend fun doFillGalleryListByApi(
         galleryInfoList: List<GalleryInfo>,
         referer: String,
-    ) {
+    ): List<GalleryApiParser.Result> {
         val json = JSONObject()
         json.put("method", "gdata")
         val ja = JSONArray()
@@ -248,19 +306,16 @@ object EhEngine {
         Log.d(TAG, url)
         return EhRequestBuilder(url, referer, origin)
             .post(json.toString().toRequestBody(MEDIA_TYPE_JSON))
-            .executeAndParsingWith {
-                GalleryApiParser.parse(this, galleryInfoList)
-            }
+            .executeAndParsingWith(GalleryApiParser::parse)
     }
 
     suspend fun getGalleryDetail(url: String): GalleryDetail {
         val referer = EhUrl.referer
         Log.d(TAG, url)
-        return EhRequestBuilder(url, referer).executeAndParsingWith {
-            EventPaneParser.parse(this)?.let {
+        return EhRequestBuilder(url, referer).executeAndStreamingWith {
+            GalleryDetailParser.parse(this, Settings.showComments) {
                 application.showEventPane(it)
             }
-            GalleryDetailParser.parse(this)
         }
     }
 
@@ -295,6 +350,8 @@ object EhEngine {
         return EhRequestBuilder(url, referer, origin)
             .post(requestBody)
             .executeAndParsingWith(RateGalleryParser::parse)
+            // Cached average rating is stale now
+            .also { gdataCache.remove(gid) }
     }
 
     suspend fun commentGallery(
@@ -351,7 +408,7 @@ object EhEngine {
     ): FavoritesParser.Result {
         val referer = EhUrl.referer
         Log.d(TAG, url)
-        return EhRequestBuilder(url, referer).executeAndParsingWith(FavoritesParser::parse)
+        return EhRequestBuilder(url, referer).executeAndStreamingWith(FavoritesParser::parse)
             .apply { fillGalleryList(galleryInfoList, url, false) }
     }
 
@@ -715,15 +772,39 @@ object EhEngine {
             .executeAndParsingWith(GalleryPageApiParser::parse)
     }
 
-    suspend fun getPTokenFromMultiPageViewer(
+    suspend fun getMultiPageViewer(
         gid: Long,
         token: String?,
         sha1: Boolean = false,
-    ): List<String> {
+    ): GalleryMultiPageViewerParser.Result {
         val url = EhUrl.getGalleryMultiPageViewerUrl(gid, token!!, sha1)
         val referer = EhUrl.getGalleryDetailUrl(gid, token)
-        val parser = if (sha1) GalleryMultiPageViewerParser::parseSha1 else GalleryMultiPageViewerParser::parsePToken
         Log.d(TAG, url)
-        return EhRequestBuilder(url, referer).executeAndParsingWith(parser)
+        return EhRequestBuilder(url, referer).executeAndParsingWith { GalleryMultiPageViewerParser.parse(this, sha1) }
+    }
+
+    suspend fun getImageDispatch(
+        gid: Long,
+        token: String?,
+        index: Int,
+        imgKey: String,
+        mpvKey: String,
+        skipHathKey: String? = null,
+    ): GalleryPageApiParser.Result {
+        val json = JSONObject()
+        json.put("method", "imagedispatch")
+        json.put("gid", gid)
+        json.put("page", index + 1)
+        json.put("imgkey", imgKey)
+        json.put("mpvkey", mpvKey)
+        if (skipHathKey != null) json.put("nl", skipHathKey)
+        val requestBody: RequestBody = json.toString().toRequestBody(MEDIA_TYPE_JSON)
+        val url = EhUrl.apiUrl
+        val referer = EhUrl.getGalleryMultiPageViewerUrl(gid, token!!)
+        val origin = EhUrl.origin
+        Log.d(TAG, url)
+        return EhRequestBuilder(url, referer, origin)
+            .post(requestBody)
+            .executeAndParsingWith(GalleryMultiPageViewerParser::parseImageDispatch)
     }
 }
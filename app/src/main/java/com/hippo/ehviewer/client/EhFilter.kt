@@ -19,6 +19,7 @@ import android.util.Log
 import com.hippo.ehviewer.EhDB
 import com.hippo.ehviewer.client.data.GalleryInfo
 import com.hippo.ehviewer.dao.Filter
+import com.hippo.util.AhoCorasick
 import java.util.Locale
 import java.util.regex.Pattern
 
@@ -38,6 +39,9 @@ object EhFilter {
     private const val MODE_COMMENT = 5
     private val TAG = EhFilter::class.java.simpleName
 
+    @Volatile
+    private lateinit var mSnapshot: Snapshot
+
     init {
         val list = EhDB.allFilter
         var i = 0
@@ -64,6 +68,7 @@ object EhFilter {
             }
             i++
         }
+        rebuildSnapshot()
     }
 
     val titleFilterList: List<Filter>
@@ -127,12 +132,14 @@ object EhFilter {
             MODE_COMMENT -> mCommentFilterList.add(filter)
             else -> Log.d(TAG, "Unknown mode: " + filter.mode)
         }
+        rebuildSnapshot()
         return true
     }
 
     @Synchronized
     fun triggerFilter(filter: Filter) {
         EhDB.triggerFilter(filter)
+        rebuildSnapshot()
     }
 
     @Synchronized
@@ -147,12 +154,12 @@ object EhFilter {
             MODE_COMMENT -> mCommentFilterList.remove(filter)
             else -> Log.d(TAG, "Unknown mode: " + filter.mode)
         }
+        rebuildSnapshot()
     }
 
     @Synchronized
     fun needTags(): Boolean = mTagFilterList.isNotEmpty() || mTagNamespaceFilterList.isNotEmpty()
 
-    @Synchronized
     fun filterTitle(info: GalleryInfo?): Boolean {
         if (null == info) {
             return false
@@ -160,25 +167,10 @@ object EhFilter {
 
         // Title
         val title = info.title
-        val filters: List<Filter> = mTitleFilterList
-        if (null != title && filters.isNotEmpty()) {
-            var i = 0
-            val n = filters.size
-            while (i < n) {
-                if (filters[i].enable!! &&
-                    title.lowercase(Locale.getDefault()).contains(
-                        filters[i].text!!,
-                    )
-                ) {
-                    return false
-                }
-                i++
-            }
-        }
-        return true
+        val matcher = mSnapshot.title
+        return null == title || matcher.isEmpty || !matcher.containsAny(title.lowercase(Locale.getDefault()))
     }
 
-    @Synchronized
     fun filterUploader(info: GalleryInfo?): Boolean {
         if (null == info) {
             return false
@@ -186,55 +178,9 @@ object EhFilter {
 
         // Uploader
         val uploader = info.uploader
-        val filters: List<Filter> = mUploaderFilterList
-        if (null != uploader && filters.isNotEmpty()) {
-            var i = 0
-            val n = filters.size
-            while (i < n) {
-                if (filters[i].enable!! && uploader == filters[i].text) {
-                    return false
-                }
-                i++
-            }
-        }
-        return true
+        return null == uploader || uploader !in mSnapshot.uploaders
     }
 
-    private fun matchTag(tag: String?, filter: String?): Boolean {
-        if (null == tag || null == filter) {
-            return false
-        }
-        val tagNamespace: String?
-        val tagName: String
-        val filterNamespace: String?
-        val filterName: String
-        var index = tag.indexOf(':')
-        if (index < 0) {
-            tagNamespace = null
-            tagName = tag
-        } else {
-            tagNamespace = tag.substring(0, index)
-            tagName = tag.substring(index + 1)
-        }
-        index = filter.indexOf(':')
-        if (index < 0) {
-            filterNamespace = null
-            filterName = filter
-        } else {
-            filterNamespace = filter.substring(0, index)
-            filterName = filter.substring(index + 1)
-        }
-        return if (null != tagNamespace &&
-            null != filterNamespace &&
-            tagNamespace != filterNamespace
-        ) {
-            false
-        } else {
-            tagName == filterName
-        }
-    }
-
-    @Synchronized
     fun filterTag(info: GalleryInfo?): Boolean {
         if (null == info) {
             return false
@@ -242,95 +188,115 @@ object EhFilter {
 
         // Tag
         val tags = info.simpleTags
-        val filters: List<Filter> = mTagFilterList
-        if (null != tags && filters.isNotEmpty()) {
+        val snapshot = mSnapshot
+        if (null != tags && snapshot.hasTags) {
             for (tag in tags) {
-                var i = 0
-                val n = filters.size
-                while (i < n) {
-                    if (filters[i].enable!! && matchTag(tag, filters[i].text)) {
-                        return false
-                    }
-                    i++
+                if (snapshot.matchTag(tag)) {
+                    return false
                 }
             }
         }
         return true
     }
 
-    private fun matchTagNamespace(tag: String?, filter: String?): Boolean {
-        if (null == tag || null == filter) {
-            return false
-        }
-        val tagNamespace: String
-        val index = tag.indexOf(':')
-        return if (index >= 0) {
-            tagNamespace = tag.substring(0, index)
-            tagNamespace == filter
-        } else {
-            false
-        }
-    }
-
-    @Synchronized
     fun filterTagNamespace(info: GalleryInfo?): Boolean {
         if (null == info) {
             return false
         }
         val tags = info.simpleTags
-        val filters: List<Filter> = mTagNamespaceFilterList
-        if (null != tags && filters.isNotEmpty()) {
+        val namespaces = mSnapshot.tagNamespaces
+        if (null != tags && namespaces.isNotEmpty()) {
             for (tag in tags) {
-                var i = 0
-                val n = filters.size
-                while (i < n) {
-                    if (filters[i].enable!! && matchTagNamespace(tag, filters[i].text)) {
-                        return false
-                    }
-                    i++
+                val index = tag.indexOf(':')
+                if (index >= 0 && tag.substring(0, index) in namespaces) {
+                    return false
                 }
             }
         }
         return true
     }
 
-    @Synchronized
     fun filterCommenter(commenter: String?): Boolean {
         if (null == commenter) {
             return false
         }
-        val filters: List<Filter> = mCommenterFilterList
-        if (filters.isNotEmpty()) {
-            var i = 0
-            val n = filters.size
-            while (i < n) {
-                if (filters[i].enable!! && commenter == filters[i].text) {
-                    return false
-                }
-                i++
-            }
-        }
-        return true
+        return commenter !in mSnapshot.commenters
     }
 
-    @Synchronized
     fun filterComment(comment: String?): Boolean {
         if (null == comment) {
             return false
         }
-        val filters: List<Filter> = mCommentFilterList
-        if (filters.isNotEmpty()) {
-            var i = 0
-            val n = filters.size
-            while (i < n) {
-                if (filters[i].enable!!) {
-                    val p = Pattern.compile(filters[i].text!!)
-                    val m = p.matcher(comment)
-                    if (m.find()) return false
+        return mSnapshot.comments.none { it.matcher(comment).find() }
+    }
+
+    private fun rebuildSnapshot() {
+        mSnapshot = Snapshot(
+            mTitleFilterList.enabledTexts(),
+            mUploaderFilterList.enabledTexts(),
+            mTagFilterList.enabledTexts(),
+            mTagNamespaceFilterList.enabledTexts(),
+            mCommenterFilterList.enabledTexts(),
+            mCommentFilterList.enabledTexts(),
+        )
+    }
+
+    private fun List<Filter>.enabledTexts(): List<String> = mapNotNull { if (it.enable == true) it.text else null }
+
+    /**
+     * Immutable view of enabled filters, replaced as a whole when filters change.
+     */
+    private class Snapshot(
+        titles: List<String>,
+        uploaders: List<String>,
+        tags: List<String>,
+        tagNamespaces: List<String>,
+        commenters: List<String>,
+        comments: List<String>,
+    ) {
+        val title = AhoCorasick(titles)
+        val uploaders = uploaders.toHashSet()
+        val tagNamespaces = tagNamespaces.toHashSet()
+        val commenters = commenters.toHashSet()
+        val comments = comments.mapNotNull {
+            runCatching { Pattern.compile(it) }.onFailure { e ->
+                Log.e(TAG, "Invalid comment filter: $it", e)
+            }.getOrNull()
+        }
+
+        // Names of tag filters without namespace, match tags in any namespace
+        private val mTagNames = HashSet<String>()
+
+        // Names of all tag filters, match tags without namespace
+        private val mAllTagNames = HashSet<String>()
+
+        // Names of tag filters with namespace, grouped by namespace
+        private val mNamespacedTagNames = HashMap<String, HashSet<String>>()
+
+        init {
+            for (filter in tags) {
+                val index = filter.indexOf(':')
+                if (index < 0) {
+                    mTagNames.add(filter)
+                    mAllTagNames.add(filter)
+                } else {
+                    val name = filter.substring(index + 1)
+                    mNamespacedTagNames.getOrPut(filter.substring(0, index)) { HashSet() }.add(name)
+                    mAllTagNames.add(name)
                 }
-                i++
             }
         }
-        return true
+
+        val hasTags: Boolean
+            get() = mAllTagNames.isNotEmpty()
+
+        fun matchTag(tag: String): Boolean {
+            val index = tag.indexOf(':')
+            if (index < 0) {
+                return tag in mAllTagNames
+            }
+            val name = tag.substring(index + 1)
+            return name in mTagNames || mNamespacedTagNames[tag.substring(0, index)]?.contains(name) == true
+        }
     }
 }
@@ -34,7 +34,6 @@ import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import okhttp3.Request
 import okhttp3.coroutines.executeAsync
-import okio.BufferedSource
 import okio.buffer
 import okio.source
 import org.json.JSONException
@@ -49,94 +48,45 @@ object EhTagDatabase {
     const val TYPE_EQUAL = 0
     const val TYPE_START = 1
     const val TYPE_CONTAIN = 2
-    private lateinit var tagGroups: TagGroups
+    @Volatile
+    private var tagIndex: EhTagIndex? = null
     private val dir = AppConfig.getFilesDir("tag-translations")
     private val urls = getMetadata(EhApplication.application)
     private val sha1Name = urls?.get(0)!!
     private val sha1Url = urls?.get(1)!!
     private val dataName = urls?.get(2)!!
     private val dataUrl = urls?.get(3)!!
+    private val indexName = "$dataName.idx"
     private val updateLock = Mutex()
 
-    fun isInitialized(): Boolean = this::tagGroups.isInitialized
+    fun isInitialized(): Boolean = tagIndex != null
 
     private fun JSONObject.toTagGroups(): TagGroups = keys().asSequence().associateWith { getJSONObject(it).toTagGroup() }
 
     private fun JSONObject.toTagGroup(): TagGroup = keys().asSequence().associateWith { getString(it) }
 
-    private fun updateData(source: BufferedSource) {
+    // Map the index built from the data, parse the data only if the index is missing or stale
+    private fun updateData(sha1: String, dataFile: File) {
+        val indexFile = File(dir, indexName)
         try {
-            tagGroups = JSONObject(source.readString(StandardCharsets.UTF_8)).toTagGroups()
+            tagIndex = EhTagIndex.open(indexFile, sha1) ?: run {
+                val tagGroups = dataFile.source().buffer().use { JSONObject(it.readString(StandardCharsets.UTF_8)).toTagGroups() }
+                EhTagIndex.build(tagGroups, sha1, indexFile)
+                EhTagIndex.open(indexFile, sha1)
+            }
         } catch (e: JSONException) {
             e.printStackTrace()
+        } catch (e: IOException) {
+            // Keep the current index, build again on next update
+            e.printStackTrace()
+            indexFile.delete()
+        } catch (e: IllegalStateException) {
+            e.printStackTrace()
+            indexFile.delete()
         }
     }
 
-    fun getTranslation(prefix: String? = NAMESPACE_PREFIX, tag: String?): String? = tagGroups[prefix]?.get(tag)?.trim()?.takeIf { it.isNotEmpty() }
-
-    private fun internalSuggestFlow(
-        tags: Map<String, String>,
-        keyword: String,
-        translate: Boolean,
-        type: Int,
-    ): Flow<Pair<String?, String>> = flow {
-        when (type) {
-            TYPE_EQUAL -> {
-                if (translate) {
-                    tags.forEach { (tag, hint) ->
-                        if (tag.equalsIgnoreSpace(keyword) || hint.equalsIgnoreSpace(keyword)) {
-                            emit(Pair(hint, tag))
-                        }
-                    }
-                } else {
-                    tags[keyword]?.let {
-                        emit(Pair(null, keyword))
-                    }
-                }
-            }
-            TYPE_START -> {
-                if (translate) {
-                    tags.forEach { (tag, hint) ->
-                        if (!tag.equalsIgnoreSpace(keyword) &&
-                            !hint.equalsIgnoreSpace(keyword) &&
-                            (tag.startsWithIgnoreSpace(keyword) || hint.startsWithIgnoreSpace(keyword))
-                        ) {
-                            emit(Pair(hint, tag))
-                        }
-                    }
-                } else {
-                    tags.keys.forEach { tag ->
-                        if (!tag.equalsIgnoreSpace(keyword) && tag.startsWithIgnoreSpace(keyword)) {
-                            emit(Pair(null, tag))
-                        }
-                    }
-                }
-            }
-            TYPE_CONTAIN -> {
-                if (translate) {
-                    tags.forEach { (tag, hint) ->
-                        if (!tag.equalsIgnoreSpace(keyword) &&
-                            !hint.equalsIgnoreSpace(keyword) &&
-                            !tag.startsWithIgnoreSpace(keyword) &&
-                            !hint.startsWithIgnoreSpace(keyword) &&
-                            (tag.containsIgnoreSpace(keyword) || hint.containsIgnoreSpace(keyword))
-                        ) {
-                            emit(Pair(hint, tag))
-                        }
-                    }
-                } else {
-                    tags.keys.forEach { tag ->
-                        if (!tag.equalsIgnoreSpace(keyword) &&
-                            !tag.startsWithIgnoreSpace(keyword) &&
-                            tag.containsIgnoreSpace(keyword)
-                        ) {
-                            emit(Pair(null, tag))
-                        }
-                    }
-                }
-            }
-        }
-    }
+    fun getTranslation(prefix: String? = NAMESPACE_PREFIX, tag: String?): String? = tagIndex?.translation(prefix, tag)?.trim()?.takeIf { it.isNotEmpty() }
 
     /* Construct a cold flow for tag database suggestions */
     fun suggestFlow(
@@ -144,29 +94,23 @@ object EhTagDatabase {
         translate: Boolean,
         type: Int,
     ): Flow<Pair<String?, String>> = flow {
+        val index = tagIndex ?: return@flow
         val keywordPrefix = keyword.substringBefore(':')
         val keywordTag = keyword.drop(keywordPrefix.length + 1)
         val prefix = namespaceToPrefix(keywordPrefix) ?: keywordPrefix
-        val tags = tagGroups[prefix.takeIf { keywordTag.isNotEmpty() && it != NAMESPACE_PREFIX }]
-        tags?.let {
-            internalSuggestFlow(it, keywordTag, translate, type).collect { (hint, tag) ->
+        if (keywordTag.isNotEmpty() && prefix != NAMESPACE_PREFIX && index.hasGroup(prefix)) {
+            index.suggest(prefix, keywordTag, translate, type).forEach { (hint, tag) ->
                 emit(Pair(hint, "$prefix:$tag"))
             }
-        } ?: tagGroups.forEach { (prefix, tags) ->
-            internalSuggestFlow(tags, keyword, translate, type).collect { (hint, tag) ->
-                emit(Pair(hint, if (prefix == NAMESPACE_PREFIX) "$tag:" else "$prefix:$tag"))
+        } else {
+            index.prefixes.forEach { prefix ->
+                index.suggest(prefix, keyword, translate, type).forEach { (hint, tag) ->
+                    emit(Pair(hint, if (prefix == NAMESPACE_PREFIX) "$tag:" else "$prefix:$tag"))
+                }
             }
         }
     }
 
-    private fun String.removeSpace(): String = replace(" ", "")
-
-    private fun String.containsIgnoreSpace(other: String, ignoreCase: Boolean = true): Boolean = removeSpace().contains(other.removeSpace(), ignoreCase)
-
-    private fun String.equalsIgnoreSpace(other: String, ignoreCase: Boolean = true): Boolean = removeSpace().equals(other.removeSpace(), ignoreCase)
-
-    private fun String.startsWithIgnoreSpace(other: String, ignoreCase: Boolean = true): Boolean = removeSpace().startsWith(other.removeSpace(), ignoreCase)
-
     private val NAMESPACE_TO_PREFIX = HashMap<String, String>().also {
         it["artist"] = "a"
         it["character"] = "c"
@@ -227,16 +171,18 @@ object EhTagDatabase {
                 if (!checkData(sha1, dataFile)) {
                     FileUtils.delete(sha1File)
                     FileUtils.delete(dataFile)
+                    FileUtils.delete(File(dir, indexName))
                     Settings.putTranslationsLastUpdate(-1)
                 }
 
                 // Read current EhTagDatabase
-                if (dataFile.exists()) {
+                if (sha1 != null && dataFile.exists()) {
                     try {
-                        dataFile.source().buffer().use { updateData(it) }
+                        updateData(sha1, dataFile)
                     } catch (_: IOException) {
                         FileUtils.delete(sha1File)
                         FileUtils.delete(dataFile)
+                        FileUtils.delete(File(dir, indexName))
                         Settings.putTranslationsLastUpdate(-1)
                     }
                 }
@@ -287,7 +233,7 @@ object EhTagDatabase {
 
                     // Read new EhTagDatabase
                     try {
-                        dataFile.source().buffer().use { updateData(it) }
+                        updateData(tempSha1!!, dataFile)
                         Settings.putTranslationsLastUpdate(time)
                     } catch (_: IOException) {
                     }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.ehviewer.client
+
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.IntBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Memory-mapped tag translation index, built once per downloaded data file.
+ *
+ * Layout, all values big-endian:
+ * - header, [HEADER_SIZE] ints
+ * - groups, [GROUP_SIZE] ints each: prefix offset, prefix length, first entry, end entry
+ * - entries sorted by tag in each group, [ENTRY_SIZE] ints each: tag, hint, key and hint key as offset and length
+ * - entry ids of each group sorted by key, then sorted by hint key
+ * - bigrams sorted by code, 3 ints each: code, posting offset, posting length
+ * - postings, sorted entry ids containing the bigram in key or hint key
+ * - string pool in UTF-16
+ *
+ * Key and hint key are tag and hint without spaces in lower case.
+ */
+class EhTagIndex private constructor(buffer: ByteBuffer) {
+    private val mInts: IntBuffer = buffer.asIntBuffer()
+    private val mGroupCount = mInts[2]
+    private val mEntryCount = mInts[3]
+    private val mBigramCount = mInts[4]
+    private val mPostingCount = mInts[5]
+    private val mGroupsBase = HEADER_SIZE
+    private val mEntriesBase = mGroupsBase + mGroupCount * GROUP_SIZE
+    private val mByKeyBase = mEntriesBase + mEntryCount * ENTRY_SIZE
+    private val mByHintKeyBase = mByKeyBase + mEntryCount
+    private val mBigramsBase = mByHintKeyBase + mEntryCount
+    private val mPostingsBase = mBigramsBase + mBigramCount * 3
+    private val mChars: CharBuffer = buffer.duplicate().apply { position((mPostingsBase + mPostingCount) * 4) }.slice().asCharBuffer()
+    private val mGroups = (0 until mGroupCount).associateBy { string(groupInt(it, 0), groupInt(it, 1)) }
+
+    private val sha1: String
+        get() = string(mInts[7], mInts[8])
+
+    val prefixes: Collection<String>
+        get() = mGroups.keys
+
+    fun hasGroup(prefix: String?): Boolean = prefix in mGroups
+
+    private fun groupInt(group: Int, field: Int): Int = mInts[mGroupsBase + group * GROUP_SIZE + field]
+
+    private fun entryInt(id: Int, field: Int): Int = mInts[mEntriesBase + id * ENTRY_SIZE + field]
+
+    private fun tag(id: Int): String = string(entryInt(id, TAG), entryInt(id, TAG + 1))
+
+    private fun hint(id: Int): String = string(entryInt(id, HINT), entryInt(id, HINT + 1))
+
+    private fun string(offset: Int, length: Int): String = mChars.subSequence(offset, offset + length).toString()
+
+    private fun compare(id: Int, field: Int, other: String): Int {
+        val offset = entryInt(id, field)
+        val length = entryInt(id, field + 1)
+        for (i in 0 until minOf(length, other.length)) {
+            val diff = mChars[offset + i] - other[i]
+            if (diff != 0) return diff
+        }
+        return length - other.length
+    }
+
+    private fun equals(id: Int, field: Int, other: String): Boolean = entryInt(id, field + 1) == other.length && compare(id, field, other) == 0
+
+    private fun startsWith(id: Int, field: Int, other: String): Boolean {
+        val offset = entryInt(id, field)
+        if (entryInt(id, field + 1) < other.length) return false
+        for (i in other.indices) {
+            if (mChars[offset + i] != other[i]) return false
+        }
+        return true
+    }
+
+    private fun contains(id: Int, field: Int, other: String): Boolean {
+        val offset = entryInt(id, field)
+        val length = entryInt(id, field + 1)
+        outer@ for (start in 0..length - other.length) {
+            for (i in other.indices) {
+                if (mChars[offset + start + i] != other[i]) continue@outer
+            }
+            return true
+        }
+        return false
+    }
+
+    /**
+     * @return first position in [[start], [end]) of sorted ids at [base] whose [field] is not less than [key]
+     */
+    private fun lowerBound(base: Int, start: Int, end: Int, field: Int, key: String): Int {
+        var low = start
+        var high = end
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (compare(mInts[base + mid], field, key) < 0) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    private fun find(group: Int, tag: String): Int {
+        var low = groupInt(group, 2)
+        var high = groupInt(group, 3) - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val cmp = compare(mid, TAG, tag)
+            when {
+                cmp < 0 -> low = mid + 1
+                cmp > 0 -> high = mid - 1
+                else -> return mid
+            }
+        }
+        return -1
+    }
+
+    fun translation(prefix: String?, tag: String?): String? {
+        val group = mGroups[prefix] ?: return null
+        tag ?: return null
+        return find(group, tag).takeIf { it >= 0 }?.let { hint(it) }
+    }
+
+    // Ids of the group whose field starts with key, in field order
+    private fun prefixRange(group: Int, base: Int, field: Int, key: String): Sequence<Int> = sequence {
+        val end = groupInt(group, 3)
+        var position = lowerBound(base, groupInt(group, 2), end, field, key)
+        while (position < end) {
+            val id = mInts[base + position]
+            if (!startsWith(id, field, key)) break
+            yield(id)
+            position++
+        }
+    }
+
+    // Ids of the group which may contain key, checked by the rarest bigram of key
+    private fun containCandidates(group: Int, key: String): Sequence<Int> {
+        val start = groupInt(group, 2)
+        val end = groupInt(group, 3)
+        if (key.length < 2) return (start until end).asSequence()
+        var bestOffset = 0
+        var bestLength = Int.MAX_VALUE
+        for (i in 0 until key.length - 1) {
+            val bigram = findBigram(bigramCode(key[i], key[i + 1])) ?: return emptySequence()
+            val length = mInts[mBigramsBase + bigram * 3 + 2]
+            if (length < bestLength) {
+                bestOffset = mInts[mBigramsBase + bigram * 3 + 1]
+                bestLength = length
+            }
+        }
+        return (0 until bestLength).asSequence()
+            .map { mInts[mPostingsBase + bestOffset + it] }
+            .dropWhile { it < start }
+            .takeWhile { it < end }
+    }
+
+    private fun findBigram(code: Int): Int? {
+        var low = 0
+        var high = mBigramCount - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val midCode = mInts[mBigramsBase + mid * 3]
+            when {
+                midCode < code -> low = mid + 1
+                midCode > code -> high = mid - 1
+                else -> return mid
+            }
+        }
+        return null
+    }
+
+    /**
+     * Same rules as matching tag and hint with spaces removed and case ignored one by one.
+     *
+     * @return pairs of hint and tag, hint is null if not [translate]
+     */
+    fun suggest(prefix: String, keyword: String, translate: Boolean, type: Int): Sequence<Pair<String?, String>> {
+        val group = mGroups[prefix] ?: return emptySequence()
+        val key = normalize(keyword)
+        return if (translate) {
+            when (type) {
+                EhTagDatabase.TYPE_EQUAL -> (
+                    prefixRange(group, mByKeyBase, KEY, key).filter { equals(it, KEY, key) } +
+                        prefixRange(group, mByHintKeyBase, HINT_KEY, key).filter { equals(it, HINT_KEY, key) }
+                    )
+
+                EhTagDatabase.TYPE_START -> (prefixRange(group, mByKeyBase, KEY, key) + prefixRange(group, mByHintKeyBase, HINT_KEY, key))
+                    .filter { !equals(it, KEY, key) && !equals(it, HINT_KEY, key) }
+
+                else -> containCandidates(group, key).filter {
+                    !startsWith(it, KEY, key) &&
+                        !startsWith(it, HINT_KEY, key) &&
+                        (contains(it, KEY, key) || contains(it, HINT_KEY, key))
+                }
+            }.distinct().map { Pair(hint(it), tag(it)) }
+        } else {
+            when (type) {
+                EhTagDatabase.TYPE_EQUAL -> sequenceOf(find(group, keyword)).filter { it >= 0 }.map { Pair(null, keyword) }
+
+                EhTagDatabase.TYPE_START -> prefixRange(group, mByKeyBase, KEY, key)
+                    .filter { !equals(it, KEY, key) }
+                    .map { Pair(null, tag(it)) }
+
+                else -> containCandidates(group, key)
+                    .filter { !startsWith(it, KEY, key) && contains(it, KEY, key) }
+                    .map { Pair(null, tag(it)) }
+            }
+        }
+    }
+
+    companion object {
+        private const val MAGIC = 0x45485449 // EHTI
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 9
+        private const val GROUP_SIZE = 4
+        private const val ENTRY_SIZE = 8
+        private const val TAG = 0
+        private const val HINT = 2
+        private const val KEY = 4
+        private const val HINT_KEY = 6
+
+        private fun normalize(text: String): String = text.replace(" ", "").lowercase()
+
+        private fun bigramCode(a: Char, b: Char): Int = (a.code shl 16) or b.code
+
+        /**
+         * @return the index, or null if the file is missing, broken or not built from data with [sha1]
+         */
+        fun open(file: File, sha1: String): EhTagIndex? = runCatching {
+            val buffer = RandomAccessFile(file, "r").use {
+                it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+            }
+            check(buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION)
+            EhTagIndex(buffer).takeIf { it.sha1 == sha1 }
+        }.onFailure {
+            it.printStackTrace()
+        }.getOrNull()
+
+        fun build(groups: Map<String, Map<String, String>>, sha1: String, file: File) {
+            val pool = StringBuilder()
+            fun put(text: String): Int = pool.length.also { pool.append(text) }
+
+            val sha1Offset = put(sha1)
+            val groupInts = ArrayList<Int>()
+            val entryInts = ArrayList<Int>()
+            val keys = ArrayList<String>()
+            val hintKeys = ArrayList<String>()
+            val byKey = ArrayList<Int>()
+            val byHintKey = ArrayList<Int>()
+            groups.forEach { (prefix, tags) ->
+                val start = keys.size
+                groupInts += listOf(put(prefix), prefix.length, start, start + tags.size)
+                tags.entries.sortedBy { it.key }.forEach { (tag, hint) ->
+                    val key = normalize(tag)
+                    val hintKey = normalize(hint)
+                    entryInts += listOf(put(tag), tag.length, put(hint), hint.length)
+                    entryInts += listOf(put(key), key.length, put(hintKey), hintKey.length)
+                    keys += key
+                    hintKeys += hintKey
+                }
+                val ids = start until keys.size
+                byKey += ids.sortedBy { keys[it] }
+                byHintKey += ids.sortedBy { hintKeys[it] }
+            }
+
+            // Ids are visited in ascending order, so postings are sorted already
+            val bigrams = sortedMapOf<Int, MutableList<Int>>()
+            for (id in keys.indices) {
+                for (key in arrayOf(keys[id], hintKeys[id])) {
+                    for (i in 0 until key.length - 1) {
+                        val posting = bigrams.getOrPut(bigramCode(key[i], key[i + 1])) { ArrayList() }
+                        if (posting.lastOrNull() != id) posting += id
+                    }
+                }
+            }
+
+            val tmp = File(file.path + ".tmp")
+            try {
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                    val postingCount = bigrams.values.sumOf { it.size }
+                    listOf(MAGIC, VERSION, groups.size, keys.size, bigrams.size, postingCount, pool.length, sha1Offset, sha1.length)
+                        .forEach { out.writeInt(it) }
+                    groupInts.forEach { out.writeInt(it) }
+                    entryInts.forEach { out.writeInt(it) }
+                    byKey.forEach { out.writeInt(it) }
+                    byHintKey.forEach { out.writeInt(it) }
+                    var postingOffset = 0
+                    bigrams.forEach { (code, posting) ->
+                        out.writeInt(code)
+                        out.writeInt(postingOffset)
+                        out.writeInt(posting.size)
+                        postingOffset += posting.size
+                    }
+                    bigrams.values.forEach { posting -> posting.forEach { out.writeInt(it) } }
+                    out.writeChars(pool.toString())
+                }
+            } catch (e: IOException) {
+                tmp.delete()
+                throw e
+            }
+            file.delete()
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                error("Failed to write tag index")
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.ehviewer.client
+
+import coil3.disk.DiskCache
+import com.hippo.ehviewer.EhApplication
+import com.hippo.ehviewer.EhDB
+import com.hippo.ehviewer.client.data.BaseGalleryInfo
+import com.hippo.ehviewer.client.data.GalleryComment
+import com.hippo.ehviewer.client.data.GalleryCommentList
+import com.hippo.ehviewer.client.data.GalleryDetail
+import com.hippo.ehviewer.client.data.GalleryInfo
+import com.hippo.ehviewer.client.data.GalleryTagGroup
+import com.hippo.ehviewer.client.data.LargePreviewSet
+import com.hippo.ehviewer.client.data.NormalPreviewSet
+import com.hippo.ehviewer.client.data.PreviewSet
+import com.hippo.ehviewer.coil.edit
+import com.hippo.ehviewer.coil.read
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.milliseconds
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.cbor.Cbor
+import kotlinx.serialization.decodeFromByteArray
+import kotlinx.serialization.encodeToByteArray
+
+/**
+ * Second tier of gallery detail cache, behind [EhApplication.galleryDetailCache].
+ * Entries younger than [FRESH_TIME] are used as is, older ones are shown while being refreshed.
+ */
+object GalleryDetailDiskCache {
+    private val FRESH_TIME = 1.hours
+    private val MAX_AGE = 7.days
+
+    private val cbor = Cbor { ignoreUnknownKeys = true }
+
+    private val diskCache by lazy {
+        DiskCache.Builder()
+            .directory(EhApplication.cacheDir / "gallery_detail")
+            .maxSizeBytes(50 * 1024 * 1024)
+            .build()
+    }
+
+    class Entry(val detail: GalleryDetail, val isStale: Boolean)
+
+    /**
+     * @return null if not cached or too old
+     */
+    fun read(gid: Long): Entry? = runCatching {
+        var entry: Entry? = null
+        diskCache.read(gid.toString()) {
+            val cached = cbor.decodeFromByteArray<CachedGalleryDetail>(data.toFile().readBytes())
+            val age = (System.currentTimeMillis() - cached.time).milliseconds
+            if (age < MAX_AGE) entry = Entry(cached.toGalleryDetail(), age > FRESH_TIME)
+        }
+        // Local favorites may have changed since
+        entry?.detail?.apply {
+            val local = EhDB.containLocalFavorites(gid)
+            if (favoriteSlot == -2 && local) {
+                favoriteSlot = -1
+            } else if (favoriteSlot == -1 && !local) {
+                favoriteSlot = -2
+            }
+        }
+        entry
+    }.onFailure {
+        it.printStackTrace()
+    }.getOrNull()
+
+    fun write(detail: GalleryDetail) = runCatching {
+        diskCache.edit(detail.gid.toString()) {
+            data.toFile().writeBytes(cbor.encodeToByteArray(detail.toCached()))
+        }
+    }.onFailure {
+        it.printStackTrace()
+    }
+
+    /**
+     * Rewrite an existing entry after a local change to [detail], keeping its age.
+     */
+    fun update(detail: GalleryDetail) = runCatching {
+        val key = detail.gid.toString()
+        var time: Long? = null
+        diskCache.read(key) {
+            time = cbor.decodeFromByteArray<CachedGalleryDetail>(data.toFile().readBytes()).time
+        }
+        time?.let {
+            diskCache.edit(key) {
+                data.toFile().writeBytes(cbor.encodeToByteArray(detail.toCached(it)))
+            }
+        }
+    }.onFailure {
+        it.printStackTrace()
+    }
+
+    fun remove(gid: Long) {
+        runCatching { diskCache.remove(gid.toString()) }
+    }
+}
+
+@Serializable
+private class CachedGalleryInfo(
+    val gid: Long,
+    val token: String?,
+    val title: String?,
+    val titleJpn: String?,
+    val thumb: String?,
+    val category: Int,
+    val posted: String?,
+    val uploader: String?,
+    val disowned: Boolean,
+    val rating: Float,
+    val rated: Boolean,
+    val simpleTags: List<String>?,
+    val pages: Int,
+    val thumbWidth: Int,
+    val thumbHeight: Int,
+    val simpleLanguage: String?,
+    val favoriteSlot: Int,
+    val favoriteName: String?,
+    val favoriteNote: String?,
+)
+
+@Serializable
+private class CachedComment(
+    val id: Long,
+    val score: Int,
+    val editable: Boolean,
+    val voteUpAble: Boolean,
+    val voteUpEd: Boolean,
+    val voteDownAble: Boolean,
+    val voteDownEd: Boolean,
+    val uploader: Boolean,
+    val voteState: String?,
+    val time: Long,
+    val user: String?,
+    val comment: String?,
+    val lastEdited: Long,
+)
+
+@Serializable
+private class CachedTagGroup(val groupName: String?, val tags: List<String>)
+
+@Serializable
+internal class CachedPreviewSet(
+    val large: Boolean,
+    val positions: List<Int>,
+    val imageUrls: List<String>,
+    val pageUrls: List<String>,
+    val sha1s: List<String>,
+    val offsetX: List<Int>,
+    val offsetY: List<Int>,
+    val clipWidth: List<Int>,
+    val clipHeight: List<Int>,
+)
+
+@Serializable
+private class CachedGalleryDetail(
+    val time: Long,
+    val info: CachedGalleryInfo,
+    val apiUid: Long,
+    val apiKey: String?,
+    val torrentCount: Int,
+    val torrentUrl: String?,
+    val archiveUrl: String?,
+    val parent: String?,
+    val newerVersions: List<CachedGalleryInfo>,
+    val visible: String?,
+    val language: String?,
+    val size: String?,
+    val favoriteCount: Int,
+    val isFavorited: Boolean,
+    val ratingCount: Int,
+    val tags: List<CachedTagGroup>?,
+    val comments: List<CachedComment>?,
+    val hasMoreComments: Boolean,
+    val previewPages: Int,
+    val previewSet: CachedPreviewSet?,
+)
+
+private fun GalleryInfo.toCached() = CachedGalleryInfo(
+    gid, token, title, titleJpn, thumb, category, posted, uploader, disowned, rating, rated,
+    simpleTags?.toList(), pages, thumbWidth, thumbHeight, simpleLanguage, favoriteSlot, favoriteName, favoriteNote,
+)
+
+private fun CachedGalleryInfo.toGalleryInfo() = BaseGalleryInfo(
+    gid = gid,
+    token = token,
+    title = title,
+    titleJpn = titleJpn,
+    thumb = thumb,
+    category = category,
+    posted = posted,
+    uploader = uploader,
+    disowned = disowned,
+    rating = rating,
+    rated = rated,
+    simpleTags = simpleTags?.toTypedArray(),
+    pages = pages,
+    thumbWidth = thumbWidth,
+    thumbHeight = thumbHeight,
+    simpleLanguage = simpleLanguage,
+    favoriteSlot = favoriteSlot,
+    favoriteName = favoriteName,
+    favoriteNote = favoriteNote,
+)
+
+private fun GalleryComment.toCached() = CachedComment(
+    id, score, editable, voteUpAble, voteUpEd, voteDownAble, voteDownEd, uploader, voteState, time, user, comment, lastEdited,
+)
+
+private fun CachedComment.toGalleryComment() = GalleryComment(
+    id, score, editable, voteUpAble, voteUpEd, voteDownAble, voteDownEd, uploader, voteState, time, user, comment, lastEdited,
+)
+
+internal fun PreviewSet.toCached(gid: Long): CachedPreviewSet {
+    val previews = (0 until size()).map { getGalleryPreview(gid, it) }
+    return CachedPreviewSet(
+        this is LargePreviewSet,
+        previews.map { it.position },
+        previews.map { it.imageUrl!! },
+        previews.map { it.pageUrl!! },
+        (0 until size()).map { getSha1At(it) },
+        previews.map { it.offsetX },
+        previews.map { it.offsetY },
+        previews.map { it.clipWidth },
+        previews.map { it.clipHeight },
+    )
+}
+
+internal fun CachedPreviewSet.toPreviewSet(): PreviewSet = if (large) {
+    LargePreviewSet().also { set ->
+        positions.indices.forEach { set.addItem(positions[it], imageUrls[it], pageUrls[it], sha1s[it]) }
+    }
+} else {
+    NormalPreviewSet().also { set ->
+        positions.indices.forEach {
+            set.addItem(positions[it], imageUrls[it], offsetX[it], offsetY[it], clipWidth[it], clipHeight[it], pageUrls[it], sha1s[it])
+        }
+    }
+}
+
+private fun GalleryDetail.toCached(time: Long = System.currentTimeMillis()) = CachedGalleryDetail(
+    time = time,
+    info = galleryInfo.toCached(),
+    apiUid = apiUid,
+    apiKey = apiKey,
+    torrentCount = torrentCount,
+    torrentUrl = torrentUrl,
+    archiveUrl = archiveUrl,
+    parent = parent,
+    newerVersions = newerVersions.map { it.toCached() },
+    visible = visible,
+    language = language,
+    size = size,
+    favoriteCount = favoriteCount,
+    isFavorited = isFavorited,
+    ratingCount = ratingCount,
+    tags = tags?.map { CachedTagGroup(it.groupName, it.toList()) },
+    comments = comments?.comments?.map { it.toCached() },
+    hasMoreComments = comments?.hasMore == true,
+    previewPages = previewPages,
+    previewSet = previewSet?.toCached(gid),
+)
+
+private fun CachedGalleryDetail.toGalleryDetail() = GalleryDetail(
+    galleryInfo = info.toGalleryInfo(),
+    apiUid = apiUid,
+    apiKey = apiKey,
+    torrentCount = torrentCount,
+    torrentUrl = torrentUrl,
+    archiveUrl = archiveUrl,
+    parent = parent,
+    newerVersions = newerVersions.mapTo(arrayListOf()) { it.toGalleryInfo() },
+    visible = visible,
+    language = language,
+    size = size,
+    favoriteCount = favoriteCount,
+    isFavorited = isFavorited,
+    ratingCount = ratingCount,
+    tags = tags?.map { GalleryTagGroup(ArrayList(it.tags), it.groupName) }?.toTypedArray(),
+    comments = comments?.let { list -> GalleryCommentList(list.map { it.toGalleryComment() }.toTypedArray(), hasMoreComments) },
+    previewPages = previewPages,
+    previewSet = previewSet?.toPreviewSet(),
+)
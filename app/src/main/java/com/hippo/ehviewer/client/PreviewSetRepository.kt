@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.ehviewer.client
+
+import androidx.collection.lruCache
+import coil3.disk.DiskCache
+import com.hippo.ehviewer.EhApplication
+import com.hippo.ehviewer.client.data.GalleryInfo
+import com.hippo.ehviewer.client.data.LargePreviewSet
+import com.hippo.ehviewer.client.data.PreviewSet
+import com.hippo.ehviewer.coil.edit
+import com.hippo.ehviewer.coil.read
+import com.hippo.ehviewer.spider.SpiderQueen
+import com.hippo.util.launchIO
+import com.hippo.util.SingleFlight
+import com.hippo.util.runSuspendCatching
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.milliseconds
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.cbor.Cbor
+import kotlinx.serialization.decodeFromByteArray
+import kotlinx.serialization.encodeToByteArray
+
+/**
+ * Preview pages of galleries, cached in memory and on disk by gid, page and preview size.
+ * Neighbouring pages are prefetched concurrently, their page tokens go to the spider info of the gallery.
+ */
+@OptIn(DelicateCoroutinesApi::class)
+object PreviewSetRepository {
+    // Pages prefetched on each side of the requested one
+    private const val PREFETCH_PAGES = 2
+    private const val FETCH_CONCURRENCY = 3
+    private val MAX_AGE = 7.days
+
+    private val cbor = Cbor { ignoreUnknownKeys = true }
+
+    private val diskCache by lazy {
+        DiskCache.Builder()
+            .directory(EhApplication.cacheDir / "preview_set")
+            .maxSizeBytes(20 * 1024 * 1024)
+            .build()
+    }
+
+    private val memoryCache = lruCache<String, Pair<PreviewSet, Int>>(32)
+
+    // In-flight requests, shared by the scene and prefetching
+    private val requests = SingleFlight<String, Pair<PreviewSet, Int>>(GlobalScope, Dispatchers.IO)
+    private val semaphore = Semaphore(FETCH_CONCURRENCY)
+    private val spiderInfoLock = Mutex()
+
+    // Large or normal previews as set on the site, known after the first fetch
+    @Volatile
+    private var large: Boolean? = null
+
+    /**
+     * @return previews of [page] and the count of preview pages
+     */
+    suspend fun get(info: GalleryInfo, page: Int): Pair<PreviewSet, Int> {
+        val result = cached(info.gid, page) ?: fetch(info, page).await()
+        prefetch(info, page, result.second)
+        return result
+    }
+
+    private fun cached(gid: Long, page: Int): Pair<PreviewSet, Int>? {
+        val sizes = large?.let { listOf(it) } ?: listOf(true, false)
+        sizes.forEach { large ->
+            val key = key(gid, page, large)
+            memoryCache[key]?.let { return it }
+            read(key)?.let {
+                memoryCache.put(key, it)
+                return it
+            }
+        }
+        return null
+    }
+
+    private fun prefetch(info: GalleryInfo, page: Int, pages: Int) {
+        launchIO {
+            (1..PREFETCH_PAGES).flatMap { listOf(page + it, page - it) }
+                .filter { it in 0 until pages && cached(info.gid, it) == null }
+                .forEach { fetch(info, it) }
+        }
+    }
+
+    private fun fetch(info: GalleryInfo, page: Int): Deferred<Pair<PreviewSet, Int>> = requests.launch("${info.gid}-$page") {
+        semaphore.withPermit { request(info, page) }
+    }
+
+    private suspend fun request(info: GalleryInfo, page: Int): Pair<PreviewSet, Int> {
+        val url = EhUrl.getGalleryDetailUrl(info.gid, info.token, page, false, SpiderQueen.GET_FULL_HASH)
+        val result = EhEngine.getPreviewSet(url)
+        val large = result.first is LargePreviewSet
+        this.large = large
+        val key = key(info.gid, page, large)
+        memoryCache.put(key, result)
+        write(key, info.gid, result)
+        runSuspendCatching {
+            spiderInfoLock.withLock { SpiderQueen.readPreviews(info, result.first, result.second, page) }
+        }.onFailure {
+            it.printStackTrace()
+        }
+        return result
+    }
+
+    private fun key(gid: Long, page: Int, large: Boolean) = "$gid-$page-${if (large) "l" else "n"}"
+
+    private fun read(key: String): Pair<PreviewSet, Int>? = runCatching {
+        var result: Pair<PreviewSet, Int>? = null
+        diskCache.read(key) {
+            val cached = cbor.decodeFromByteArray<CachedPreviewPage>(data.toFile().readBytes())
+            val age = (System.currentTimeMillis() - cached.time).milliseconds
+            if (age < MAX_AGE) result = cached.previewSet.toPreviewSet() to cached.previewPages
+        }
+        result
+    }.onFailure {
+        it.printStackTrace()
+    }.getOrNull()
+
+    private fun write(key: String, gid: Long, result: Pair<PreviewSet, Int>) = runCatching {
+        val cached = CachedPreviewPage(System.currentTimeMillis(), result.second, result.first.toCached(gid))
+        diskCache.edit(key) {
+            data.toFile().writeBytes(cbor.encodeToByteArray(cached))
+        }
+    }.onFailure {
+        it.printStackTrace()
+    }
+}
+
+@Serializable
+private class CachedPreviewPage(val time: Long, val previewPages: Int, val previewSet: CachedPreviewSet)
@@ -19,6 +19,7 @@ import com.hippo.ehviewer.client.exception.NotLoggedInException
 import com.hippo.ehviewer.client.exception.ParseException
 import com.hippo.util.ExceptionUtils
 import com.hippo.util.JsoupUtils
+import okio.BufferedSource
 import org.jsoup.Jsoup
 
 object FavoritesParser {
@@ -48,6 +49,30 @@ object FavoritesParser {
         return Result(catArray.requireNoNulls(), countArray, result)
     }
 
+    /**
+     * Parse in one forward pass over the response, see [GalleryListParser.parse].
+     */
+    fun parse(source: BufferedSource): Result {
+        val catArray = arrayOfNulls<String>(10)
+        val countArray = IntArray(10)
+        var fps = 0
+        val result = GalleryListParser.streamList(source) { e ->
+            if (e.tagName() == "p" && e.text().endsWith("This page requires you to log on.")) {
+                throw NotLoggedInException()
+            }
+            if (e.hasClass("fp") && e.closest(".ido") != null) {
+                // Last one is "fp fps"
+                if (fps < 10) {
+                    countArray[fps] = ParserUtils.parseInt(e.child(0).text(), 0)
+                    catArray[fps] = ParserUtils.trim(e.child(2).text())
+                }
+                fps++
+            }
+        }
+        if (fps != 11) throw ParseException("Parse favorites error")
+        return Result(catArray.requireNoNulls(), countArray, result)
+    }
+
     class Result(
         val catArray: Array<String>,
         val countArray: IntArray,
@@ -21,26 +21,51 @@ import com.hippo.yorozuya.NumberUtils
 import org.json.JSONObject
 
 object GalleryApiParser {
-    fun parse(body: String, galleryInfoList: List<GalleryInfo>) {
+    class Result(
+        val gid: Long,
+        private val title: String,
+        private val titleJpn: String,
+        private val category: Int,
+        private val thumb: String,
+        private val uploader: String,
+        private val posted: String,
+        private val rating: Float,
+        private val simpleTags: Array<String>,
+        private val pages: Int,
+    ) {
+        fun fill(gi: GalleryInfo) {
+            gi.title = title
+            gi.titleJpn = titleJpn
+            gi.category = category
+            gi.thumb = thumb
+            gi.uploader = uploader
+            gi.posted = posted
+            gi.rating = rating
+            gi.simpleTags = simpleTags.copyOf()
+            gi.pages = pages
+            gi.generateSLang()
+        }
+    }
+
+    fun parse(body: String): List<Result> {
         val jo = JSONObject(body)
         val ja = jo.getJSONArray("gmetadata")
-        for (i in 0 until ja.length()) {
+        return (0 until ja.length()).map { i ->
             val g = ja.getJSONObject(i)
-            val gid = g.getLong("gid")
-            val gi = galleryInfoList.find { it.gid == gid } ?: continue
-            gi.title = ParserUtils.trim(g.getString("title"))
-            gi.titleJpn = ParserUtils.trim(g.getString("title_jpn"))
-            gi.category = getCategory(g.getString("category"))
-            gi.thumb = g.getString("thumb")
-            gi.uploader = g.getString("uploader")
-            gi.posted =
-                ParserUtils.formatDate(ParserUtils.parseLong(g.getString("posted"), 0) * 1000)
-            gi.rating = NumberUtils.parseFloatSafely(g.getString("rating"), 0.0f)
             // tags
             val tagJa = g.getJSONArray("tags")
-            gi.simpleTags = (0 until tagJa.length()).map { tagJa.getString(it) }.toTypedArray()
-            gi.pages = NumberUtils.parseIntSafely(g.getString("filecount"), 0)
-            gi.generateSLang()
+            Result(
+                gid = g.getLong("gid"),
+                title = ParserUtils.trim(g.getString("title")),
+                titleJpn = ParserUtils.trim(g.getString("title_jpn")),
+                category = getCategory(g.getString("category")),
+                thumb = g.getString("thumb"),
+                uploader = g.getString("uploader"),
+                posted = ParserUtils.formatDate(ParserUtils.parseLong(g.getString("posted"), 0) * 1000),
+                rating = NumberUtils.parseFloatSafely(g.getString("rating"), 0.0f),
+                simpleTags = Array(tagJa.length()) { tagJa.getString(it) },
+                pages = NumberUtils.parseIntSafely(g.getString("filecount"), 0),
+            )
         }
     }
 }
@@ -42,6 +42,7 @@ import com.hippo.yorozuya.unescapeXml
 import kotlinx.datetime.LocalDateTime
 import kotlinx.datetime.format.MonthNames
 import kotlinx.datetime.format.char
+import okio.BufferedSource
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
@@ -67,7 +68,7 @@ object GalleryDetailParser {
         Regex("<td[^>]+><a[^>]+>([\\d,]+)</a></td><td[^>]+>(?:<a[^>]+>)?&gt;(?:</a>)?</td>")
     private val PATTERN_PREVIEW =
         Regex("<a href=\"([^\"]+)\">(?:<div>)?<div title=\"Page (\\d+)(?:[^\"]+\"){2}\\D+(\\d+)\\D+(\\d+)[^(]+\\(([^)]+)\\)(?: -(\\d+))?(?:.*?data-orghash=\"([^\"]+)\")?")
-    private val PATTERN_NEWER_DATE = Regex(", added (.+?)<br />")
+    private val PATTERN_NEWER_DATE = Regex(", added (.+?)<br ?/?>")
     private val PATTERN_FAVORITE_SLOT =
         Regex("/fav.png\\); background-position:0px -(\\d+)px")
     private val EMPTY_GALLERY_TAG_GROUP_ARRAY = arrayOf<GalleryTagGroup>()
@@ -113,26 +114,101 @@ object GalleryDetailParser {
         return galleryDetail
     }
 
+    /**
+     * Parse in one forward pass over the response, comments are only parsed if [withComments].
+     */
+    @Throws(EhException::class)
+    fun parse(source: BufferedSource, withComments: Boolean, onEventPane: (String) -> Unit): GalleryDetail {
+        val gd = GalleryDetail()
+        var hasGm = false
+        val comments = mutableListOf<GalleryComment>()
+        var hasMoreComments = false
+        ParserUtils.streamHtml(source) { e ->
+            when {
+                e.tagName() == "p" -> when (e.outerHtml()) {
+                    OFFENSIVE_STRING -> throw OffensiveException()
+                    PINING_STRING -> throw PiningException()
+                    else -> return@streamHtml
+                }
+                // Error info
+                e.tagName() == "div" && e.hasClass("d") -> {
+                    PATTERN_ERROR.find(e.outerHtml())?.run { throw EhException(groupValues[1]) }
+                    return@streamHtml
+                }
+                e.tagName() == "script" -> PATTERN_DETAIL.find(e.data())?.let { parseDetailScript(gd, it) }
+                e.id() == "eventpane" -> onEventPane(e.html())
+                // Comments div#cdiv is a gm too
+                e.hasClass("gm") && !hasGm -> {
+                    parseDetailHeader(gd, e, e.outerHtml())
+                    hasGm = true
+                }
+                e.id() == "gnd" -> parseNewerVersions(gd, e, e.outerHtml())
+                e.id() == "taglist" -> gd.tags = parseTagGroups(e)
+                e.hasClass("c1") -> {
+                    if (withComments) parseComment(e)?.let { comments.add(it) }
+                    // Anchor of comment id
+                    e.previousElementSibling()?.remove()
+                }
+                e.id() == "chd" -> hasMoreComments = hasMoreComments(e)
+                // The other one is below previews
+                e.hasClass("ptt") -> if (gd.previewPages == 0) gd.previewPages = parsePreviewPages(e)
+                e.id() == "gdt" -> gd.previewSet = parsePreviewSet(e.outerHtml())
+                else -> return@streamHtml
+            }
+            e.remove()
+        }
+        if (gd.gid == -1L || !hasGm || gd.previewPages == 0 || gd.previewSet == null) {
+            throw ParseException("Can't parse gallery detail")
+        }
+        if (gd.favoriteSlot == -2 && EhDB.containLocalFavorites(gd.gid)) {
+            gd.favoriteSlot = -1
+        }
+        gd.comments = if (withComments) {
+            GalleryCommentList(comments.toTypedArray(), hasMoreComments)
+        } else {
+            // Not shown, let comments scene load them
+            GalleryCommentList(arrayOf(), true)
+        }
+        gd.generateSLang()
+        return gd
+    }
+
     @Throws(ParseException::class)
     private fun parseDetail(gd: GalleryDetail, d: Document, body: String) {
-        PATTERN_DETAIL.find(body)?.apply {
-            gd.gid = groupValues[1].toLongOrNull() ?: -1L
-            gd.token = groupValues[2]
-            gd.apiUid = groupValues[3].toLongOrNull() ?: -1L
-            gd.apiKey = groupValues[4]
+        PATTERN_DETAIL.find(body)?.let {
+            parseDetailScript(gd, it)
         } ?: throw ParseException("Can't parse gallery detail")
         if (gd.gid == -1L) {
             throw ParseException("Can't parse gallery detail")
         }
-        PATTERN_TORRENT.find(body)?.run {
+        val gm = d.getElementsByClass("gm").first() ?: throw ParseException("Can't parse gallery detail")
+        parseDetailHeader(gd, gm, body)
+        if (gd.favoriteSlot == -2 && EhDB.containLocalFavorites(gd.gid)) {
+            gd.favoriteSlot = -1
+        }
+        d.getElementById("gnd")?.let { parseNewerVersions(gd, it, body) }
+    }
+
+    private fun parseDetailScript(gd: GalleryDetail, result: MatchResult) {
+        gd.gid = result.groupValues[1].toLongOrNull() ?: -1L
+        gd.token = result.groupValues[2]
+        gd.apiUid = result.groupValues[3].toLongOrNull() ?: -1L
+        gd.apiKey = result.groupValues[4]
+    }
+
+    /**
+     * @param html contains [gm], the whole page or just [gm]
+     */
+    @Throws(ParseException::class)
+    private fun parseDetailHeader(gd: GalleryDetail, gm: Element, html: String) {
+        PATTERN_TORRENT.find(html)?.run {
             gd.torrentUrl = groupValues[1].trim().unescapeXml()
             gd.torrentCount = groupValues[2].toIntOrNull() ?: 0
         }
-        PATTERN_ARCHIVE.find(body)?.run {
+        PATTERN_ARCHIVE.find(html)?.run {
             gd.archiveUrl = groupValues[1].trim().unescapeXml()
         }
         try {
-            val gm = d.getElementsByClass("gm")[0]
             // Thumb url
             gm.getElementById("gd1")?.child(0)?.attr("style")?.trim()?.let {
                 gd.thumb = PATTERN_COVER.find(it)?.run {
@@ -218,22 +294,23 @@ object GalleryDetailParser {
                 } else {
                     gd.isFavorited = true
                     gd.favoriteName = StringUtils.trim(gdf.text())
-                    PATTERN_FAVORITE_SLOT.find(body)?.run {
+                    PATTERN_FAVORITE_SLOT.find(html)?.run {
                         gd.favoriteSlot = ((groupValues[1].toIntOrNull() ?: 2) - 2) / 19
                     }
                 }
             }
-            if (gd.favoriteSlot == -2 && EhDB.containLocalFavorites(gd.gid)) {
-                gd.favoriteSlot = -1
-            }
         } catch (e: Throwable) {
             ExceptionUtils.throwIfFatal(e)
             throw ParseException("Can't parse gallery detail")
         }
+    }
 
-        // Newer version
-        d.getElementById("gnd")?.run {
-            val dates = PATTERN_NEWER_DATE.findAll(body).map { it.groupValues[1] }.toList()
+    /**
+     * @param html contains [gnd], the whole page or just [gnd]
+     */
+    private fun parseNewerVersions(gd: GalleryDetail, gnd: Element, html: String) {
+        gnd.run {
+            val dates = PATTERN_NEWER_DATE.findAll(html).map { it.groupValues[1] }.toList()
             select("a").forEachIndexed { index, element ->
                 val gi = BaseGalleryInfo()
                 val result = GalleryDetailUrlParser.parse(element.attr("href"))
@@ -331,10 +408,11 @@ object GalleryDetailParser {
     /**
      * Parse tag groups with html parser
      */
-    fun parseTagGroups(document: Document): Array<GalleryTagGroup>? {
+    fun parseTagGroups(document: Document): Array<GalleryTagGroup>? = parseTagGroups(document.getElementById("taglist"))
+
+    private fun parseTagGroups(taglist: Element?): Array<GalleryTagGroup>? {
         return try {
-            val taglist = document.getElementById("taglist")!!
-            if (taglist.children().isEmpty()) return null
+            if (taglist!!.children().isEmpty()) return null
             val tagGroups = taglist.child(0).child(0).children()
             parseTagGroups(tagGroups)
         } catch (e: Throwable) {
@@ -447,6 +525,14 @@ object GalleryDetailParser {
         val c1s = cdiv.getElementsByClass("c1")
         val list = c1s.mapNotNull { parseComment(it) }
         val chd = cdiv.getElementById("chd")
+        GalleryCommentList(list.toTypedArray(), hasMoreComments(chd!!))
+    } catch (e: Throwable) {
+        ExceptionUtils.throwIfFatal(e)
+        e.printStackTrace()
+        EMPTY_GALLERY_COMMENT_ARRAY
+    }
+
+    private fun hasMoreComments(chd: Element): Boolean {
         var hasMore = false
         NodeTraversor.traverse(
             object : NodeVisitor {
@@ -458,22 +544,20 @@ object GalleryDetailParser {
 
                 override fun tail(node: Node, depth: Int) {}
             },
-            chd!!,
+            chd,
         )
-        GalleryCommentList(list.toTypedArray(), hasMore)
-    } catch (e: Throwable) {
-        ExceptionUtils.throwIfFatal(e)
-        e.printStackTrace()
-        EMPTY_GALLERY_COMMENT_ARRAY
+        return hasMore
     }
 
     /**
      * Parse preview pages with html parser
      */
     @Throws(ParseException::class)
-    fun parsePreviewPages(document: Document): Int = try {
-        val ptt = document.getElementsByClass("ptt").first()!!
-        val elements = ptt.child(0).child(0).children()
+    fun parsePreviewPages(document: Document): Int = parsePreviewPages(document.getElementsByClass("ptt").first())
+
+    @Throws(ParseException::class)
+    private fun parsePreviewPages(ptt: Element?): Int = try {
+        val elements = ptt!!.child(0).child(0).children()
         elements[elements.size - 2].text().toInt()
     } catch (e: Throwable) {
         ExceptionUtils.throwIfFatal(e)
@@ -26,6 +26,7 @@ import com.hippo.util.ExceptionUtils
 import com.hippo.util.JsoupUtils
 import com.hippo.yorozuya.NumberUtils
 import java.util.regex.Pattern
+import okio.BufferedSource
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
@@ -204,9 +205,6 @@ object GalleryListParser {
             gi.posted = posted.text().trim { it <= ' ' }
             gi.favoriteSlot = parseFavoriteSlot(posted.attr("style"))
         }
-        if (gi.favoriteSlot < 0) {
-            gi.favoriteSlot = if (EhDB.containLocalFavorites(gi.gid)) -1 else -2
-        }
 
         // Rating
         val ir = JsoupUtils.getElementByClass(e, "ir")
@@ -265,11 +263,118 @@ object GalleryListParser {
         return gi
     }
 
+    // Check local favorites of galleries not in cloud favorites with one query
+    private fun fillLocalFavorites(list: List<GalleryInfo>) {
+        val gidList = list.filter { it.favoriteSlot < 0 }.map { it.gid }
+        if (gidList.isEmpty()) return
+        val localFavorites = EhDB.containLocalFavorites(gidList)
+        list.forEach {
+            if (it.favoriteSlot < 0) {
+                it.favoriteSlot = if (it.gid in localFavorites) -1 else -2
+            }
+        }
+    }
+
     fun parse(body: String): Result {
         val d = Jsoup.parse(body)
         return parse(d, body)
     }
 
+    /**
+     * Parse in one forward pass over the response, rows are parsed as they arrive.
+     */
+    @Throws(ParseException::class)
+    fun parse(source: BufferedSource): Result = streamList(source) {}
+
+    /**
+     * @param onElement gets closed elements which are not part of the list
+     */
+    @Throws(ParseException::class)
+    fun streamList(source: BufferedSource, onElement: (Element) -> Unit): Result {
+        val result = Result()
+        var hasPrev = false
+        var hasNext = false
+        var hasPtt = false
+        var hasItg = false
+        var rows = 0
+        var secondRow: String? = null
+        var noHits = false
+        var noWatchedTags = false
+        val warn = mutableListOf<String>()
+        ParserUtils.streamHtml(source) { e ->
+            when {
+                // Pagination is shown twice, take the first
+                e.id() == "uprev" && !hasPrev -> {
+                    val matcher = PATTERN_PREV.matcher(e.attr("href"))
+                    if (matcher.find()) result.prev = matcher.group(1)
+                    hasPrev = true
+                }
+                e.id() == "unext" && !hasNext -> {
+                    val matcher = PATTERN_NEXT.matcher(e.attr("href"))
+                    if (matcher.find()) result.next = matcher.group(1)
+                    hasNext = true
+                }
+                e.hasClass("ptt") && !hasPtt -> {
+                    parsePtt(result, e)
+                    hasPtt = true
+                }
+                isListRow(e) -> {
+                    parseGalleryInfo(e)?.let { result.galleryInfoList.add(it) }
+                    if (++rows == 2) secondRow = e.text()
+                    e.remove()
+                }
+                e.hasClass("itg") -> hasItg = true
+                else -> {
+                    if (e.tagName() == "p") {
+                        val text = e.text()
+                        if (text.startsWith("You do not have any watched tags")) noWatchedTags = true
+                        if (text.endsWith("No hits found")) noHits = true
+                    } else if (e.hasClass("searchwarn")) {
+                        warn.add(e.text())
+                    }
+                    onElement(e)
+                }
+            }
+        }
+        // Toplists and popular have no cursors, they page with ptt or not at all
+        if (!hasPrev || !hasNext) {
+            result.noWatchedTags = noWatchedTags
+            if (noHits) {
+                if (warn.isEmpty()) return result
+                throw EhException(warn.joinToString(" "))
+            }
+        }
+        if (!hasItg) throw ParseException("Can't parse gallery list")
+        fillLocalFavorites(result.galleryInfoList)
+        if (result.galleryInfoList.isEmpty() && NO_UNFILTERED_TEXT != secondRow) {
+            Log.d(TAG, "No gallery found")
+        }
+        return result
+    }
+
+    // Children of div.itg, or rows of table.itg
+    private fun isListRow(e: Element): Boolean {
+        val parent = e.parent() ?: return false
+        return parent.hasClass("itg") && !"table".equals(parent.tagName(), ignoreCase = true) ||
+            "tbody" == parent.tagName() && parent.parent()?.let { "table".equals(it.tagName(), ignoreCase = true) && it.hasClass("itg") } == true
+    }
+
+    private fun parsePtt(result: Result, ptt: Element) {
+        try { // For toplists
+            val es = ptt.child(0).child(0).children()
+            result.pages = es[es.size - 2].text().trim { it <= ' ' }.toInt()
+            var e = es[es.size - 1]
+            e = e.children().first() as Element
+            val href = e.attr("href")
+            val matcher = PATTERN_NEXT_PAGE.matcher(href)
+            if (matcher.find()) {
+                result.nextPage = NumberUtils.parseIntSafely(matcher.group(1), 0)
+            }
+        } catch (e: Throwable) {
+            e.printStackTrace()
+        }
+    }
+
     fun parse(d: Document, body: String): Result {
         val result = Result()
         try {
@@ -293,22 +398,7 @@ object GalleryListParser {
                 }
             }
         }
-        try { // For toplists
-            val ptt = d.getElementsByClass("ptt").first()
-            if (ptt != null) {
-                val es = ptt.child(0).child(0).children()
-                result.pages = es[es.size - 2].text().trim { it <= ' ' }.toInt()
-                var e = es[es.size - 1]
-                e = e.children().first() as Element
-                val href = e.attr("href")
-                val matcher = PATTERN_NEXT_PAGE.matcher(href)
-                if (matcher.find()) {
-                    result.nextPage = NumberUtils.parseIntSafely(matcher.group(1), 0)
-                }
-            }
-        } catch (e: Throwable) {
-            e.printStackTrace()
-        }
+        d.getElementsByClass("ptt").first()?.let { parsePtt(result, it) }
         try {
             val itg = d.getElementsByClass("itg").first()
             val es = if ("table".equals(itg!!.tagName(), ignoreCase = true)) {
@@ -324,6 +414,7 @@ object GalleryListParser {
                     list.add(gi)
                 }
             }
+            fillLocalFavorites(list)
             if (list.isEmpty()) {
                 if (es.size < 2 || NO_UNFILTERED_TEXT != es[1].text()) {
                     Log.d(TAG, "No gallery found")
@@ -17,11 +17,15 @@
  */
 package com.hippo.ehviewer.client.parser
 
+import com.hippo.ehviewer.client.EhUrl
 import com.hippo.ehviewer.client.exception.ParseException
 import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
 
 object GalleryMultiPageViewerParser {
     private const val IMAGE_LIST_STRING = "var imagelist = "
+    private val PATTERN_MPV_KEY = Regex("var mpvkey = \"([^\"]+)\"")
     private val PATTERN_SHA1 = Regex("data-orghash=\"([^\"]+)\"")
 
     fun parsePToken(body: String): List<String> = runCatching {
@@ -38,4 +42,35 @@ object GalleryMultiPageViewerParser {
     }.getOrElse {
         throw ParseException("Parse sha1 from MPV error", it)
     }
+
+    /**
+     * @param sha1 whether the page is requested with full hashes
+     */
+    fun parse(body: String, sha1: Boolean): Result = Result(
+        PATTERN_MPV_KEY.find(body)?.groupValues?.get(1),
+        if (sha1) parseSha1(body) else parsePToken(body),
+    )
+
+    /**
+     * Parse the result of imagedispatch, the MPV counterpart of showpage.
+     */
+    fun parseImageDispatch(body: String): GalleryPageApiParser.Result = try {
+        val jo = JSONObject(body)
+        if (jo.has("error")) {
+            throw ParseException(jo.getString("error"))
+        }
+        val imageUrl = jo.getString("i")
+        if (imageUrl.isEmpty()) {
+            throw ParseException("Parse image url from image dispatch error")
+        }
+        GalleryPageApiParser.Result(
+            imageUrl,
+            jo.optString("s").ifEmpty { null },
+            jo.optString("lf").ifEmpty { null }?.let { EhUrl.host + it },
+        )
+    } catch (e: JSONException) {
+        throw ParseException("Can't parse json", e)
+    }
+
+    class Result(val mpvKey: String?, val pTokens: List<String>)
 }
@@ -20,6 +20,10 @@ import com.hippo.yorozuya.NumberUtils
 import com.hippo.yorozuya.StringUtils
 import kotlinx.datetime.LocalDateTime
 import kotlinx.datetime.format.char
+import okio.BufferedSource
+import org.jsoup.nodes.Element
+import org.jsoup.parser.Parser
+import org.jsoup.parser.StreamParser
 
 object ParserUtils {
     // yyyy-MM-dd HH:mm
@@ -42,4 +46,18 @@ object ParserUtils {
     fun parseInt(str: String?, defValue: Int): Int = NumberUtils.parseIntSafely(trim(str).replace(",", ""), defValue)
 
     fun parseLong(str: String?, defValue: Long): Long = NumberUtils.parseLongSafely(trim(str).replace(",", ""), defValue)
+
+    /**
+     * Parse html in one forward pass, [onElement] is called as each element is closed.
+     * Remove handled elements from the tree so it does not grow with the page.
+     */
+    inline fun streamHtml(source: BufferedSource, onElement: (Element) -> Unit) {
+        StreamParser(Parser.htmlParser()).use { streamer ->
+            streamer.parse(source.inputStream().reader(), "")
+            // Sections are matched by regex on outerHtml, keep them as is
+            streamer.document().outputSettings().prettyPrint(false)
+            val iterator = streamer.iterator()
+            while (iterator.hasNext()) onElement(iterator.next())
+        }
+    }
 }
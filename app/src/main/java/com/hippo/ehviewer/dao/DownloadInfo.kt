@@ -21,6 +21,7 @@ import android.annotation.SuppressLint
 import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.Ignore
+import com.hippo.ehviewer.client.EhUtils
 import com.hippo.ehviewer.client.data.BaseGalleryInfo
 import com.hippo.ehviewer.client.data.GalleryInfo
 
@@ -54,6 +55,19 @@ class DownloadInfo() : BaseGalleryInfo() {
     @Ignore
     var total = 0
 
+    @Ignore
+    @Volatile
+    private var mTitleKeys: TitleKeys? = null
+
+    /**
+     * Keys derived from the suitable title, computed again only when it changes.
+     */
+    val titleKeys: TitleKeys
+        get() {
+            val title = EhUtils.getSuitableTitle(this)
+            return mTitleKeys?.takeIf { it.title === title } ?: TitleKeys(title).also { mTitleKeys = it }
+        }
+
     constructor(galleryInfo: GalleryInfo) : this() {
         gid = galleryInfo.gid
         token = galleryInfo.token
@@ -68,7 +82,14 @@ class DownloadInfo() : BaseGalleryInfo() {
         simpleLanguage = galleryInfo.simpleLanguage
     }
 
+    class TitleKeys(val title: String) {
+        val author = PATTERN_AUTHOR.find(title)?.groupValues?.get(1)?.trim { it <= ' ' } ?: ""
+        val name = PATTERN_NAME.find(title)?.groupValues?.get(1)?.trim { it <= ' ' } ?: title
+    }
+
     companion object {
+        private val PATTERN_AUTHOR = Regex("^(?:\\([^\\[\\]()]+\\))?\\s*\\[([^\\[\\]]+)]")
+        private val PATTERN_NAME = Regex("^(?:\\([^\\[\\]()]+\\))?\\s*(?:\\[[^\\[\\]]+])?\\s*(.+)")
         const val STATE_INVALID = -1
         const val STATE_NONE = 0
         const val STATE_WAIT = 1
@@ -29,17 +29,17 @@ interface DownloadLabelDao : BasicDao<DownloadLabel> {
     override fun list(): List<DownloadLabel>
 
     @Query("SELECT * FROM DOWNLOAD_LABELS ORDER BY TIME ASC LIMIT :limit OFFSET :offset")
-    fun list(offset: Int, limit: Int): List<DownloadLabel>
+    suspend fun list(offset: Int, limit: Int): List<DownloadLabel>
 
     @Update
-    fun update(downloadLabels: List<DownloadLabel>)
+    suspend fun update(downloadLabels: List<DownloadLabel>)
 
     @Update
-    fun update(downloadLabel: DownloadLabel)
+    suspend fun update(downloadLabel: DownloadLabel)
 
     @Insert
     override fun insert(t: DownloadLabel): Long
 
     @Delete
-    fun delete(downloadLabel: DownloadLabel)
+    suspend fun delete(downloadLabel: DownloadLabel)
 }
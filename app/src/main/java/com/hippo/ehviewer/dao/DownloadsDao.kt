@@ -22,24 +22,22 @@ import androidx.room.Delete
 import androidx.room.Insert
 import androidx.room.Query
 import androidx.room.Update
+import androidx.room.Upsert
 
 @Dao
 interface DownloadsDao : BasicDao<DownloadInfo> {
     @Query("SELECT * FROM DOWNLOADS ORDER BY TIME DESC")
     override fun list(): List<DownloadInfo>
 
-    @Query("SELECT * FROM DOWNLOADS WHERE GID = :gid")
-    fun load(gid: Long): DownloadInfo?
-
     @Update
-    fun update(downloadInfos: List<DownloadInfo>)
+    suspend fun update(downloadInfos: List<DownloadInfo>)
 
-    @Update
-    fun update(downloadInfo: DownloadInfo)
+    @Upsert
+    suspend fun upsert(downloadInfo: DownloadInfo)
 
     @Insert
     override fun insert(t: DownloadInfo): Long
 
     @Delete
-    fun delete(downloadInfo: DownloadInfo)
+    suspend fun delete(downloadInfo: DownloadInfo)
 }
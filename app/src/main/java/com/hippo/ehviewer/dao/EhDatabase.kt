@@ -21,10 +21,12 @@ import android.content.Context
 import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 
 @Database(
-    entities = [BookmarkInfo::class, DownloadInfo::class, DownloadLabel::class, DownloadDirname::class, Filter::class, HistoryInfo::class, LocalFavoriteInfo::class, QuickSearch::class],
-    version = 4,
+    entities = [BookmarkInfo::class, DownloadInfo::class, DownloadLabel::class, DownloadDirname::class, Filter::class, HistoryInfo::class, LocalFavoriteInfo::class, LocalFavoriteFts::class, QuickSearch::class],
+    version = 5,
     exportSchema = false,
 )
 abstract class EhDatabase : RoomDatabase() {
@@ -38,8 +40,40 @@ abstract class EhDatabase : RoomDatabase() {
     abstract fun quickSearchDao(): QuickSearchDao
 }
 
+// Tags of local favorites and their full text index
+private val MIGRATION_4_5 = object : Migration(4, 5) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("ALTER TABLE `LOCAL_FAVORITES` ADD COLUMN `TAGS` TEXT")
+        db.execSQL(
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `LOCAL_FAVORITES_FTS` USING FTS4(" +
+                "`TITLE` TEXT, `TITLE_JPN` TEXT, `UPLOADER` TEXT, `TAGS` TEXT, tokenize=unicode61, content=`LOCAL_FAVORITES`)",
+        )
+        // Same as the triggers Room creates for a content entity
+        val columns = "`TITLE`, `TITLE_JPN`, `UPLOADER`, `TAGS`"
+        val values = "NEW.`TITLE`, NEW.`TITLE_JPN`, NEW.`UPLOADER`, NEW.`TAGS`"
+        listOf("BEFORE UPDATE", "BEFORE DELETE").forEach {
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_LOCAL_FAVORITES_FTS_${it.replace(' ', '_')} $it ON `LOCAL_FAVORITES` " +
+                    "BEGIN DELETE FROM `LOCAL_FAVORITES_FTS` WHERE `docid`=OLD.`rowid`; END",
+            )
+        }
+        listOf("AFTER UPDATE", "AFTER INSERT").forEach {
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_LOCAL_FAVORITES_FTS_${it.replace(' ', '_')} $it ON `LOCAL_FAVORITES` " +
+                    "BEGIN INSERT INTO `LOCAL_FAVORITES_FTS`(`docid`, $columns) VALUES (NEW.`rowid`, $values); END",
+            )
+        }
+        db.execSQL("INSERT INTO `LOCAL_FAVORITES_FTS`(`LOCAL_FAVORITES_FTS`) VALUES ('rebuild')")
+    }
+}
+
+val EH_DB_MIGRATIONS = arrayOf<Migration>(MIGRATION_4_5)
+
 fun buildMainDB(context: Context): EhDatabase {
     // TODO: Remove allowMainThreadQueries
+    // Readers do not wait for the writer with WAL
     return Room.databaseBuilder(context, EhDatabase::class.java, "eh.db").allowMainThreadQueries()
+        .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+        .addMigrations(*EH_DB_MIGRATIONS)
         .build()
 }
@@ -21,14 +21,12 @@ import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
+import androidx.room.OnConflictStrategy
 import androidx.room.Query
-import androidx.room.Update
+import androidx.room.Upsert
 
 @Dao
 interface HistoryDao : BasicDao<HistoryInfo> {
-    @Query("SELECT * FROM HISTORY WHERE GID = :gid")
-    fun load(gid: Long): HistoryInfo?
-
     @Query("SELECT * FROM HISTORY ORDER BY TIME DESC")
     override fun list(): List<HistoryInfo>
 
@@ -38,18 +36,23 @@ interface HistoryDao : BasicDao<HistoryInfo> {
     @Query("SELECT * FROM HISTORY ORDER BY TIME DESC")
     fun listLazy(): PagingSource<Int, HistoryInfo>
 
-    @Update
-    fun update(historyInfo: HistoryInfo)
+    @Upsert
+    suspend fun upsert(historyInfoList: List<HistoryInfo>)
+
+    // Favorite slot is stored in MODE, shifted by 2
+    @Query("UPDATE HISTORY SET MODE = :slot + 2 WHERE GID = :gid")
+    suspend fun updateFavoriteSlot(gid: Long, slot: Int)
 
     @Insert
     override fun insert(t: HistoryInfo): Long
 
-    @Delete
-    fun delete(historyInfo: HistoryInfo)
+    // Keep existing entries
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertIfAbsent(historyInfoList: List<HistoryInfo>)
 
     @Delete
-    fun delete(historyInfo: List<HistoryInfo>)
+    suspend fun delete(historyInfo: HistoryInfo)
 
     @Query("DELETE FROM HISTORY")
-    fun deleteAll()
+    suspend fun deleteAll()
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.ehviewer.dao
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+
+/**
+ * Full text index of [LocalFavoriteInfo], kept in sync by triggers on its table.
+ */
+@Fts4(contentEntity = LocalFavoriteInfo::class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "LOCAL_FAVORITES_FTS")
+class LocalFavoriteFts(
+    @ColumnInfo(name = "TITLE")
+    val title: String?,
+
+    @ColumnInfo(name = "TITLE_JPN")
+    val titleJpn: String?,
+
+    @ColumnInfo(name = "UPLOADER")
+    val uploader: String?,
+
+    @ColumnInfo(name = "TAGS")
+    val tags: String?,
+)
@@ -29,6 +29,10 @@ class LocalFavoriteInfo() : BaseGalleryInfo() {
     @ColumnInfo(name = "TIME")
     var time: Long = 0
 
+    // Simple tags for search, see LocalFavoriteFts
+    @ColumnInfo(name = "TAGS")
+    var tags: String? = null
+
     constructor(galleryInfo: GalleryInfo) : this() {
         gid = galleryInfo.gid
         token = galleryInfo.token
@@ -41,6 +45,7 @@ class LocalFavoriteInfo() : BaseGalleryInfo() {
         rating = galleryInfo.rating
         simpleTags = galleryInfo.simpleTags
         simpleLanguage = galleryInfo.simpleLanguage
+        tags = galleryInfo.simpleTags?.joinToString(" ")
     }
 
     init {
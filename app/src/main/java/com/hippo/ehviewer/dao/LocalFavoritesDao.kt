@@ -17,9 +17,11 @@
  */
 package com.hippo.ehviewer.dao
 
+import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
+import androidx.room.OnConflictStrategy
 import androidx.room.Query
 
 @Dao
@@ -27,21 +29,37 @@ interface LocalFavoritesDao : BasicDao<LocalFavoriteInfo> {
     @Query("SELECT * FROM LOCAL_FAVORITES ORDER BY TIME DESC")
     override fun list(): List<LocalFavoriteInfo>
 
-    @Query("SELECT * FROM LOCAL_FAVORITES WHERE TITLE LIKE :title ORDER BY TIME DESC")
-    fun list(title: String): List<LocalFavoriteInfo>
+    @Query("SELECT * FROM LOCAL_FAVORITES ORDER BY TIME DESC")
+    fun listLazy(): PagingSource<Int, LocalFavoriteInfo>
+
+    @Query(
+        "SELECT LOCAL_FAVORITES.* FROM LOCAL_FAVORITES JOIN LOCAL_FAVORITES_FTS ON LOCAL_FAVORITES.GID = LOCAL_FAVORITES_FTS.rowid " +
+            "WHERE LOCAL_FAVORITES_FTS MATCH :query ORDER BY TIME DESC",
+    )
+    fun listLazy(query: String): PagingSource<Int, LocalFavoriteInfo>
 
-    @Query("SELECT * FROM LOCAL_FAVORITES WHERE GID = :gid")
-    fun load(gid: Long): LocalFavoriteInfo?
+    @Query(
+        "SELECT * FROM LOCAL_FAVORITES WHERE TITLE LIKE :pattern ESCAPE '\\' OR TITLE_JPN LIKE :pattern ESCAPE '\\' " +
+            "OR UPLOADER LIKE :pattern ESCAPE '\\' OR TAGS LIKE :pattern ESCAPE '\\' ORDER BY TIME DESC",
+    )
+    fun listLazyLike(pattern: String): PagingSource<Int, LocalFavoriteInfo>
 
     @Query("SELECT EXISTS(SELECT * FROM LOCAL_FAVORITES WHERE GID = :gid)")
     fun contains(gid: Long): Boolean
 
+    @Query("SELECT GID FROM LOCAL_FAVORITES WHERE GID IN (:gidList)")
+    fun contains(gidList: List<Long>): List<Long>
+
     @Insert
     override fun insert(t: LocalFavoriteInfo): Long
 
+    // Keep existing entries
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertIfAbsent(localFavoriteInfoList: List<LocalFavoriteInfo>)
+
     @Delete
     fun delete(localFavoriteInfo: LocalFavoriteInfo)
 
-    @Query("DELETE FROM LOCAL_FAVORITES WHERE GID = :gid")
-    fun deleteByKey(gid: Long)
+    @Query("DELETE FROM LOCAL_FAVORITES WHERE GID IN (:gidList)")
+    fun delete(gidList: List<Long>)
 }
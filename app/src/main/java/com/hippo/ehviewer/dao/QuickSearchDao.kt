@@ -40,6 +40,9 @@ interface QuickSearchDao : BasicDao<QuickSearch> {
     @Insert
     override fun insert(t: QuickSearch): Long
 
+    @Insert
+    fun insert(quickSearchList: List<QuickSearch>)
+
     @Delete
     fun delete(quickSearch: QuickSearch)
 }
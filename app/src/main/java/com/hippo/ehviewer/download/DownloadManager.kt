@@ -21,6 +21,7 @@ import androidx.collection.LongSparseArray
 import androidx.collection.keyIterator
 import androidx.core.util.size
 import com.hippo.ehviewer.EhDB
+import com.hippo.ehviewer.Settings
 import com.hippo.ehviewer.client.data.GalleryInfo
 import com.hippo.ehviewer.dao.DownloadInfo
 import com.hippo.ehviewer.dao.DownloadLabel
@@ -39,7 +40,7 @@ import java.util.LinkedList
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 
-object DownloadManager : OnSpiderListener {
+object DownloadManager {
     // All download info list
     private val mAllInfoList: LinkedList<DownloadInfo>
 
@@ -58,14 +59,18 @@ object DownloadManager : OnSpiderListener {
     // Store download info with default label
     private val mDefaultInfoList: LinkedList<DownloadInfo>
 
-    // Store download info wait to start
+    // Store download info wait to start, higher priority first
     private val mWaitList: LinkedList<DownloadInfo>
+
+    // Priority of download info in wait list
+    private val mWaitPriorityMap = mutableMapOf<Long, Int>()
+
+    // Download tasks running now, gid as key
+    private val mActiveTasks = LinkedHashMap<Long, DownloadTask>()
     private val mSpeedReminder: SpeedReminder
     private val mDownloadInfoListeners: MutableList<DownloadInfoListener?>
     private val mNotifyTaskPool = ConcurrentPool<NotifyTask?>(5)
     private var mDownloadListener: DownloadListener? = null
-    private var mCurrentTask: DownloadInfo? = null
-    private var mCurrentSpider: SpiderQueen? = null
 
     init {
         // Get all download dirname
@@ -182,19 +187,44 @@ object DownloadManager : OnSpiderListener {
         mDownloadListener = listener
     }
 
-    private fun ensureDownload() {
-        if (mCurrentTask != null) {
-            // Only one download
-            return
+    /**
+     * Count of galleries downloading now
+     */
+    val downloadingCount: Int
+        get() = mActiveTasks.size
+
+    /**
+     * Download speed of all downloading galleries
+     */
+    val speed: Long
+        get() = mSpeedReminder.speed
+
+    /**
+     * Remaining time of all downloading galleries, -1 for unknown
+     */
+    val remaining: Long
+        get() = mSpeedReminder.remaining
+
+    private fun addToWaitList(info: DownloadInfo, priority: Int) {
+        mWaitPriorityMap[info.gid] = priority
+        val index = mWaitList.indexOfFirst { (mWaitPriorityMap[it.gid] ?: PRIORITY_NORMAL) < priority }
+        if (index < 0) {
+            mWaitList.add(info)
+        } else {
+            mWaitList.add(index, info)
         }
+    }
 
-        // Get download from wait list
-        if (!mWaitList.isEmpty()) {
+    private fun ensureDownload() {
+        // Get download from wait list until all slots are taken
+        while (mActiveTasks.size < Settings.concurrentGalleryDownload && !mWaitList.isEmpty()) {
             val info = mWaitList.removeFirst()
+            val priority = mWaitPriorityMap.remove(info.gid) ?: PRIORITY_NORMAL
             val spider = SpiderQueen.obtainSpiderQueen(info, SpiderQueen.MODE_DOWNLOAD)
-            mCurrentTask = info
-            mCurrentSpider = spider
-            spider.addOnSpiderListener(this)
+            val task = DownloadTask(info, spider)
+            mActiveTasks[info.gid] = task
+            DownloadPermitPool.register(info.gid, priority)
+            spider.addOnSpiderListener(task)
             info.state = DownloadInfo.STATE_DOWNLOAD
             info.speed = -1
             info.remaining = -1
@@ -221,8 +251,8 @@ object DownloadManager : OnSpiderListener {
     }
 
     fun startDownload(galleryInfo: GalleryInfo, label: String?) {
-        if (mCurrentTask != null && mCurrentTask!!.gid == galleryInfo.gid) {
-            // It is current task
+        if (mActiveTasks.containsKey(galleryInfo.gid)) {
+            // It is downloading
             return
         }
 
@@ -232,8 +262,8 @@ object DownloadManager : OnSpiderListener {
             if (info.state != DownloadInfo.STATE_WAIT) {
                 // Set state DownloadInfo.STATE_WAIT
                 info.state = DownloadInfo.STATE_WAIT
-                // Add to wait list
-                mWaitList.add(info)
+                // Add to wait list, user picked it so put it ahead
+                addToWaitList(info, PRIORITY_HIGH)
                 // Update in DB
                 EhDB.putDownloadInfo(info)
                 // Notify state update
@@ -266,7 +296,7 @@ object DownloadManager : OnSpiderListener {
             mAllInfoMap.put(galleryInfo.gid, info)
 
             // Add to wait list
-            mWaitList.add(info)
+            addToWaitList(info, PRIORITY_HIGH)
 
             // Save to
             EhDB.putDownloadInfo(info)
@@ -297,7 +327,7 @@ object DownloadManager : OnSpiderListener {
                 // Set state DownloadInfo.STATE_WAIT
                 info.state = DownloadInfo.STATE_WAIT
                 // Add to wait list
-                mWaitList.add(info)
+                addToWaitList(info, PRIORITY_NORMAL)
                 // Update in DB
                 EhDB.putDownloadInfo(info)
             }
@@ -321,7 +351,7 @@ object DownloadManager : OnSpiderListener {
                 // Set state DownloadInfo.STATE_WAIT
                 info.state = DownloadInfo.STATE_WAIT
                 // Add to wait list
-                mWaitList.add(info)
+                addToWaitList(info, PRIORITY_NORMAL)
                 // Update in DB
                 EhDB.putDownloadInfo(info)
             }
@@ -443,13 +473,15 @@ object DownloadManager : OnSpiderListener {
     }
 
     fun stopCurrentDownload() {
-        val info = stopCurrentDownloadInternal()
-        if (info != null) {
+        val infoList = stopActiveDownloadInternal()
+        if (infoList.isNotEmpty()) {
             // Update listener
-            val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
-            if (list != null) {
-                for (l in mDownloadInfoListeners) {
-                    l!!.onUpdate(info, list)
+            for (info in infoList) {
+                val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
+                if (list != null) {
+                    for (l in mDownloadInfoListeners) {
+                        l!!.onUpdate(info, list)
+                    }
                 }
             }
             // Ensure download
@@ -477,9 +509,10 @@ object DownloadManager : OnSpiderListener {
             EhDB.putDownloadInfo(info)
         }
         mWaitList.clear()
+        mWaitPriorityMap.clear()
 
-        // Stop current
-        stopCurrentDownloadInternal()
+        // Stop all running
+        stopActiveDownloadInternal()
 
         // Notify mDownloadInfoListener
         for (l in mDownloadInfoListeners) {
@@ -606,17 +639,15 @@ object DownloadManager : OnSpiderListener {
     // Update listener
     // No ensureDownload
     private fun stopDownloadInternal(gid: Long): DownloadInfo? {
-        // Check current task
-        if (mCurrentTask != null && mCurrentTask!!.gid == gid) {
-            // Stop current
-            return stopCurrentDownloadInternal()
-        }
+        // Check running task
+        mActiveTasks[gid]?.let { return stopTaskInternal(it) }
         val iterator = mWaitList.iterator()
         while (iterator.hasNext()) {
             val info = iterator.next()
             if (info.gid == gid) {
                 // Remove from wait list
                 iterator.remove()
+                mWaitPriorityMap.remove(gid)
                 // Update state
                 info.state = DownloadInfo.STATE_NONE
                 // Update in DB
@@ -627,23 +658,27 @@ object DownloadManager : OnSpiderListener {
         return null
     }
 
-    // Update in DB
-    // Update mDownloadListener
-    private fun stopCurrentDownloadInternal(): DownloadInfo? {
-        val info = mCurrentTask
-        val spider = mCurrentSpider
+    private fun releaseTask(task: DownloadTask) {
+        mActiveTasks.remove(task.info.gid)
         // Release spider
-        if (spider != null) {
-            spider.removeOnSpiderListener(this@DownloadManager)
-            SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD)
-        }
-        mCurrentTask = null
-        mCurrentSpider = null
+        task.spider.removeOnSpiderListener(task)
+        SpiderQueen.releaseSpiderQueen(task.spider, SpiderQueen.MODE_DOWNLOAD)
+        DownloadPermitPool.unregister(task.info.gid)
         // Stop speed reminder
-        mSpeedReminder.stop()
-        if (info == null) {
-            return null
+        if (mActiveTasks.isEmpty()) {
+            mSpeedReminder.stop()
         }
+    }
+
+    // Update in DB
+    // Update mDownloadListener
+    private fun stopActiveDownloadInternal(): List<DownloadInfo> = mActiveTasks.values.toList().map { stopTaskInternal(it) }
+
+    // Update in DB
+    // Update mDownloadListener
+    private fun stopTaskInternal(task: DownloadTask): DownloadInfo {
+        val info = task.info
+        releaseTask(task)
 
         // Update state
         info.state = DownloadInfo.STATE_NONE
@@ -660,16 +695,13 @@ object DownloadManager : OnSpiderListener {
     // Update mDownloadListener
     private fun stopRangeDownloadInternal(gidList: LongList) {
         // Two way
-        if (gidList.size < mWaitList.size) {
+        if (gidList.size < mWaitList.size + mActiveTasks.size) {
             for (i in 0 until gidList.size) {
                 stopDownloadInternal(gidList[i])
             }
         } else {
-            // Check current task
-            if (mCurrentTask != null && gidList.contains(mCurrentTask!!.gid)) {
-                // Stop current
-                stopCurrentDownloadInternal()
-            }
+            // Check running tasks
+            mActiveTasks.values.filter { gidList.contains(it.info.gid) }.forEach { stopTaskInternal(it) }
 
             // Check all in wait list
             val iterator = mWaitList.iterator()
@@ -678,6 +710,7 @@ object DownloadManager : OnSpiderListener {
                 if (gidList.contains(info.gid)) {
                     // Remove from wait list
                     iterator.remove()
+                    mWaitPriorityMap.remove(info.gid)
                     // Update state
                     info.state = DownloadInfo.STATE_NONE
                     // Update in DB
@@ -810,80 +843,7 @@ object DownloadManager : OnSpiderListener {
     }
 
     val isIdle: Boolean
-        get() = mCurrentTask == null && mWaitList.isEmpty()
-
-    override fun onGetPages(pages: Int) {
-        var task = mNotifyTaskPool.pop()
-        if (task == null) {
-            task = NotifyTask()
-        }
-        task.setOnGetPagesData(pages)
-        SimpleHandler.getInstance().post(task)
-    }
-
-    override fun onGet509(index: Int) {
-        var task = mNotifyTaskPool.pop()
-        if (task == null) {
-            task = NotifyTask()
-        }
-        task.setOnGet509Data(index)
-        SimpleHandler.getInstance().post(task)
-    }
-
-    override fun onPageDownload(
-        index: Int,
-        contentLength: Long,
-        receivedSize: Long,
-        bytesRead: Int,
-    ) {
-        var task = mNotifyTaskPool.pop()
-        if (task == null) {
-            task = NotifyTask()
-        }
-        task.setOnPageDownloadData(index, contentLength, receivedSize, bytesRead)
-        SimpleHandler.getInstance().post(task)
-    }
-
-    override fun onPageSuccess(index: Int, finished: Int, downloaded: Int, total: Int) {
-        var task = mNotifyTaskPool.pop()
-        if (task == null) {
-            task = NotifyTask()
-        }
-        task.setOnPageSuccessData(index, finished, downloaded, total)
-        SimpleHandler.getInstance().post(task)
-    }
-
-    override fun onPageFailure(
-        index: Int,
-        error: String?,
-        finished: Int,
-        downloaded: Int,
-        total: Int,
-    ) {
-        var task = mNotifyTaskPool.pop()
-        if (task == null) {
-            task = NotifyTask()
-        }
-        task.setOnPageFailureDate(index, error, finished, downloaded, total)
-        SimpleHandler.getInstance().post(task)
-    }
-
-    override fun onFinish(finished: Int, downloaded: Int, total: Int) {
-        var task = mNotifyTaskPool.pop()
-        if (task == null) {
-            task = NotifyTask()
-        }
-        task.setOnFinishDate(finished, downloaded, total)
-        SimpleHandler.getInstance().post(task)
-    }
-
-    override fun onGetImageSuccess(index: Int, image: Image?) {
-        // Ignore
-    }
-
-    override fun onGetImageFailure(index: Int, error: String?) {
-        // Ignore
-    }
+        get() = mActiveTasks.isEmpty() && mWaitList.isEmpty()
 
     interface DownloadInfoListener {
         /**
@@ -955,13 +915,133 @@ object DownloadManager : OnSpiderListener {
         fun onCancel(info: DownloadInfo)
     }
 
+    private class DownloadTask(val info: DownloadInfo, val spider: SpiderQueen) : OnSpiderListener {
+        private val mContentLengthMap = SparseLongArray()
+        private val mReceivedSizeMap = SparseLongArray()
+        private var mBytesRead: Long = 0
+        private var oldSpeed: Long = -1
+
+        private fun obtainNotifyTask(): NotifyTask {
+            val task = mNotifyTaskPool.pop() ?: NotifyTask()
+            task.mTask = this
+            return task
+        }
+
+        fun onDownload(index: Int, contentLength: Long, receivedSize: Long, bytesRead: Int) {
+            mContentLengthMap.put(index, contentLength)
+            mReceivedSizeMap.put(index, receivedSize)
+            mBytesRead += bytesRead.toLong()
+        }
+
+        fun onDone(index: Int) {
+            mContentLengthMap.delete(index)
+            mReceivedSizeMap.delete(index)
+        }
+
+        fun clearPages() {
+            mContentLengthMap.clear()
+            mReceivedSizeMap.clear()
+        }
+
+        /**
+         * Update speed and remaining time of [info] with bytes read since last call.
+         *
+         * @return estimated bytes left, -1 for unknown
+         */
+        fun updateSpeed(): Long {
+            var newSpeed = mBytesRead / 2
+            if (oldSpeed != -1L) {
+                newSpeed =
+                    MathUtils.lerp(oldSpeed.toFloat(), newSpeed.toFloat(), 0.75f).toLong()
+            }
+            oldSpeed = newSpeed
+            mBytesRead = 0
+            info.speed = newSpeed
+
+            // Calculate remaining
+            if (info.total <= 0) {
+                info.remaining = -1
+                return -1
+            }
+            var downloadingCount = 0
+            var downloadingContentLengthSum: Long = 0
+            var totalSize: Long = 0
+            for (i in 0 until maxOf(mContentLengthMap.size, mReceivedSizeMap.size)) {
+                val contentLength = mContentLengthMap.valueAt(i)
+                val receivedSize = mReceivedSizeMap.valueAt(i)
+                downloadingCount++
+                downloadingContentLengthSum += contentLength
+                totalSize += contentLength - receivedSize
+            }
+            if (downloadingCount == 0) {
+                if (newSpeed == 0L) info.remaining = MAX_REMAINING
+                return -1
+            }
+            totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount
+            info.remaining = if (newSpeed == 0L) MAX_REMAINING else totalSize / newSpeed * 1000
+            return totalSize
+        }
+
+        override fun onGetPages(pages: Int) {
+            val task = obtainNotifyTask()
+            task.setOnGetPagesData(pages)
+            SimpleHandler.getInstance().post(task)
+        }
+
+        override fun onGet509(index: Int) {
+            val task = obtainNotifyTask()
+            task.setOnGet509Data(index)
+            SimpleHandler.getInstance().post(task)
+        }
+
+        override fun onPageDownload(
+            index: Int,
+            contentLength: Long,
+            receivedSize: Long,
+            bytesRead: Int,
+        ) {
+            // Already coalesced and on the main thread, ignore events from stopped task
+            if (mActiveTasks[info.gid] === this) onDownload(index, contentLength, receivedSize, bytesRead)
+        }
+
+        override fun onPageSuccess(index: Int, finished: Int, downloaded: Int, total: Int) {
+            val task = obtainNotifyTask()
+            task.setOnPageSuccessData(index, finished, downloaded, total)
+            SimpleHandler.getInstance().post(task)
+        }
+
+        override fun onPageFailure(
+            index: Int,
+            error: String?,
+            finished: Int,
+            downloaded: Int,
+            total: Int,
+        ) {
+            val task = obtainNotifyTask()
+            task.setOnPageFailureDate(index, error, finished, downloaded, total)
+            SimpleHandler.getInstance().post(task)
+        }
+
+        override fun onFinish(finished: Int, downloaded: Int, total: Int) {
+            val task = obtainNotifyTask()
+            task.setOnFinishDate(finished, downloaded, total)
+            SimpleHandler.getInstance().post(task)
+        }
+
+        override fun onGetImageSuccess(index: Int, image: Image?) {
+            // Ignore
+        }
+
+        override fun onGetImageFailure(index: Int, error: String?) {
+            // Ignore
+        }
+    }
+
     private class NotifyTask : Runnable {
+        var mTask: DownloadTask? = null
         private var mType = 0
         private var mPages = 0
         private var mIndex = 0
-        private var mContentLength: Long = 0
-        private var mReceivedSize: Long = 0
-        private var mBytesRead = 0
         private var mError: String? = null
         private var mFinished = 0
         private var mDownloaded = 0
@@ -976,19 +1056,6 @@ object DownloadManager : OnSpiderListener {
             mIndex = index
         }
 
-        fun setOnPageDownloadData(
-            index: Int,
-            contentLength: Long,
-            receivedSize: Long,
-            bytesRead: Int,
-        ) {
-            mType = TYPE_ON_PAGE_DOWNLOAD
-            mIndex = index
-            mContentLength = contentLength
-            mReceivedSize = receivedSize
-            mBytesRead = bytesRead
-        }
-
         fun setOnPageSuccessData(index: Int, finished: Int, downloaded: Int, total: Int) {
             mType = TYPE_ON_PAGE_SUCCESS
             mIndex = index
@@ -1020,18 +1087,24 @@ object DownloadManager : OnSpiderListener {
         }
 
         override fun run() {
+            val task = mTask
+            mTask = null
+            // Ignore events from stopped task
+            if (task != null && mActiveTasks[task.info.gid] === task) {
+                onNotify(task)
+            }
+            mNotifyTaskPool.push(this)
+        }
+
+        private fun onNotify(task: DownloadTask) {
+            val info = task.info
             when (mType) {
                 TYPE_ON_GET_PAGES -> {
-                    val info = mCurrentTask
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be")
-                    } else {
-                        info.total = mPages
-                        val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
-                        if (list != null) {
-                            for (l in mDownloadInfoListeners) {
-                                l!!.onUpdate(info, list)
-                            }
+                    info.total = mPages
+                    val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
+                    if (list != null) {
+                        for (l in mDownloadInfoListeners) {
+                            l!!.onUpdate(info, list)
                         }
                     }
                 }
@@ -1040,104 +1113,75 @@ object DownloadManager : OnSpiderListener {
                         mDownloadListener!!.onGet509()
                     }
                 }
-                TYPE_ON_PAGE_DOWNLOAD -> mSpeedReminder.onDownload(
-                    mIndex,
-                    mContentLength,
-                    mReceivedSize,
-                    mBytesRead,
-                )
                 TYPE_ON_PAGE_SUCCESS -> {
-                    mSpeedReminder.onDone(mIndex)
-                    val info = mCurrentTask
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be")
-                    } else {
-                        info.finished = mFinished
-                        info.downloaded = mDownloaded
-                        info.total = mTotal
-                        if (mDownloadListener != null) {
-                            mDownloadListener!!.onGetPage(info)
-                        }
-                        val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
-                        if (list != null) {
-                            for (l in mDownloadInfoListeners) {
-                                l!!.onUpdate(info, list)
-                            }
+                    task.onDone(mIndex)
+                    info.finished = mFinished
+                    info.downloaded = mDownloaded
+                    info.total = mTotal
+                    if (mDownloadListener != null) {
+                        mDownloadListener!!.onGetPage(info)
+                    }
+                    val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
+                    if (list != null) {
+                        for (l in mDownloadInfoListeners) {
+                            l!!.onUpdate(info, list)
                         }
                     }
                 }
                 TYPE_ON_PAGE_FAILURE -> {
-                    mSpeedReminder.onDone(mIndex)
-                    val info = mCurrentTask
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be")
-                    } else {
-                        info.finished = mFinished
-                        info.downloaded = mDownloaded
-                        info.total = mTotal
-                        val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
-                        if (list != null) {
-                            for (l in mDownloadInfoListeners) {
-                                l!!.onUpdate(info, list)
-                            }
+                    task.onDone(mIndex)
+                    info.finished = mFinished
+                    info.downloaded = mDownloaded
+                    info.total = mTotal
+                    val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
+                    if (list != null) {
+                        for (l in mDownloadInfoListeners) {
+                            l!!.onUpdate(info, list)
                         }
                     }
                 }
                 TYPE_ON_FINISH -> {
-                    mSpeedReminder.onFinish()
-                    // Download done
-                    val info = mCurrentTask
-                    mCurrentTask = null
-                    val spider = mCurrentSpider
-                    mCurrentSpider = null
-                    // Release spider
-                    if (spider != null) {
-                        spider.removeOnSpiderListener(DownloadManager)
-                        SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD)
-                    }
-                    // Check null
-                    if (info == null || spider == null) {
-                        Log.e(TAG, "Current stuff is null, but it should not be")
+                    task.clearPages()
+                    // Download done, release spider
+                    releaseTask(task)
+                    // Update state
+                    info.finished = mFinished
+                    info.downloaded = mDownloaded
+                    info.total = mTotal
+                    info.legacy = mTotal - mFinished
+                    if (info.legacy == 0) {
+                        info.state = DownloadInfo.STATE_FINISH
                     } else {
-                        // Stop speed count
-                        mSpeedReminder.stop()
-                        // Update state
-                        info.finished = mFinished
-                        info.downloaded = mDownloaded
-                        info.total = mTotal
-                        info.legacy = mTotal - mFinished
-                        if (info.legacy == 0) {
-                            info.state = DownloadInfo.STATE_FINISH
-                        } else {
-                            info.state = DownloadInfo.STATE_FAILED
-                        }
-                        // Update in DB
-                        EhDB.putDownloadInfo(info)
-                        // Notify
-                        if (mDownloadListener != null) {
-                            mDownloadListener!!.onFinish(info)
-                        }
-                        val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
-                        if (list != null) {
-                            for (l in mDownloadInfoListeners) {
-                                l!!.onUpdate(info, list)
-                            }
+                        info.state = DownloadInfo.STATE_FAILED
+                    }
+                    // Update in DB
+                    EhDB.putDownloadInfo(info)
+                    // Notify
+                    if (mDownloadListener != null) {
+                        mDownloadListener!!.onFinish(info)
+                    }
+                    val list: List<DownloadInfo>? = getInfoListForLabel(info.label)
+                    if (list != null) {
+                        for (l in mDownloadInfoListeners) {
+                            l!!.onUpdate(info, list)
                         }
-                        // Start next download
-                        ensureDownload()
                     }
+                    // Start next download
+                    ensureDownload()
                 }
             }
-            mNotifyTaskPool.push(this)
         }
     }
 
     internal class SpeedReminder : Runnable {
-        private val mContentLengthMap = SparseLongArray()
-        private val mReceivedSizeMap = SparseLongArray()
         private var mStop = true
-        private var mBytesRead: Long = 0
-        private var oldSpeed: Long = -1
+
+        // Sum of all downloading galleries
+        var speed: Long = -1
+            private set
+        var remaining: Long = -1
+            private set
+
         fun start() {
             if (mStop) {
                 mStop = false
@@ -1148,62 +1192,34 @@ object DownloadManager : OnSpiderListener {
         fun stop() {
             if (!mStop) {
                 mStop = true
-                mBytesRead = 0
-                oldSpeed = -1
-                mContentLengthMap.clear()
-                mReceivedSizeMap.clear()
+                speed = -1
+                remaining = -1
                 SimpleHandler.getInstance().removeCallbacks(this)
             }
         }
 
-        fun onDownload(index: Int, contentLength: Long, receivedSize: Long, bytesRead: Int) {
-            mContentLengthMap.put(index, contentLength)
-            mReceivedSizeMap.put(index, receivedSize)
-            mBytesRead += bytesRead.toLong()
-        }
-
-        fun onDone(index: Int) {
-            mContentLengthMap.delete(index)
-            mReceivedSizeMap.delete(index)
-        }
-
-        fun onFinish() {
-            mContentLengthMap.clear()
-            mReceivedSizeMap.clear()
-        }
-
         override fun run() {
-            val info = mCurrentTask
-            if (info != null) {
-                var newSpeed = mBytesRead / 2
-                if (oldSpeed != -1L) {
-                    newSpeed =
-                        MathUtils.lerp(oldSpeed.toFloat(), newSpeed.toFloat(), 0.75f).toLong()
-                }
-                oldSpeed = newSpeed
-                info.speed = newSpeed
-
-                // Calculate remaining
-                if (info.total <= 0) {
-                    info.remaining = -1
-                } else if (newSpeed == 0L) {
-                    info.remaining = 300L * 24L * 60L * 60L * 1000L // 300 days
+            val tasks = mActiveTasks.values.toList()
+            var totalSpeed: Long = 0
+            var totalSize: Long = 0
+            var unknownSize = tasks.isEmpty()
+            for (task in tasks) {
+                val size = task.updateSpeed()
+                totalSpeed += task.info.speed
+                if (size < 0) {
+                    unknownSize = true
                 } else {
-                    var downloadingCount = 0
-                    var downloadingContentLengthSum: Long = 0
-                    var totalSize: Long = 0
-                    for (i in 0 until maxOf(mContentLengthMap.size, mReceivedSizeMap.size)) {
-                        val contentLength = mContentLengthMap.valueAt(i)
-                        val receivedSize = mReceivedSizeMap.valueAt(i)
-                        downloadingCount++
-                        downloadingContentLengthSum += contentLength
-                        totalSize += contentLength - receivedSize
-                    }
-                    if (downloadingCount != 0) {
-                        totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount
-                        info.remaining = totalSize / newSpeed * 1000
-                    }
+                    totalSize += size
                 }
+            }
+            speed = totalSpeed
+            remaining = when {
+                unknownSize -> -1
+                totalSpeed == 0L -> MAX_REMAINING
+                else -> totalSize / totalSpeed * 1000
+            }
+            for (task in tasks) {
+                val info = task.info
                 if (mDownloadListener != null) {
                     mDownloadListener!!.onDownload(info)
                 }
@@ -1214,7 +1230,6 @@ object DownloadManager : OnSpiderListener {
                     }
                 }
             }
-            mBytesRead = 0
             if (!mStop) {
                 SimpleHandler.getInstance().postDelayed(this, 2000)
             }
@@ -1224,10 +1239,12 @@ object DownloadManager : OnSpiderListener {
     private val TAG = DownloadManager::class.java.simpleName
     private const val TYPE_ON_GET_PAGES = 0
     private const val TYPE_ON_GET_509 = 1
-    private const val TYPE_ON_PAGE_DOWNLOAD = 2
-    private const val TYPE_ON_PAGE_SUCCESS = 3
-    private const val TYPE_ON_PAGE_FAILURE = 4
-    private const val TYPE_ON_FINISH = 5
+    private const val TYPE_ON_PAGE_SUCCESS = 2
+    private const val TYPE_ON_PAGE_FAILURE = 3
+    private const val TYPE_ON_FINISH = 4
+    private const val PRIORITY_NORMAL = 0
+    private const val PRIORITY_HIGH = 1
+    private const val MAX_REMAINING = 300L * 24L * 60L * 60L * 1000L // 300 days
 
     private fun MutableList<DownloadInfo>.sortByDateDescending() {
         sortByDescending { it.time }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.ehviewer.download
+
+import com.hippo.ehviewer.Settings
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+
+/**
+ * Page download permits shared by all downloading galleries.
+ * Waiting galleries with higher priority are served first, galleries with the same priority take turns.
+ */
+object DownloadPermitPool {
+    private val mWaiters = LinkedHashMap<Long, ArrayDeque<CompletableDeferred<Unit>>>()
+    private val mPriorities = mutableMapOf<Long, Int>()
+    private var mLimit = Settings.downloadThreadCount
+    private var mInUse = 0
+
+    @Synchronized
+    fun register(gid: Long, priority: Int) {
+        // Pick up new concurrency setting when idle
+        if (mPriorities.isEmpty() && mInUse == 0) {
+            mLimit = Settings.downloadThreadCount
+        }
+        mPriorities[gid] = priority
+    }
+
+    @Synchronized
+    fun unregister(gid: Long) {
+        mPriorities.remove(gid)
+    }
+
+    // Galleries downloading now
+    val galleryCount: Int
+        @Synchronized get() = mPriorities.size
+
+    suspend fun <T> withPermit(gid: Long, block: suspend () -> T): T {
+        acquire(gid)
+        try {
+            return block()
+        } finally {
+            release()
+        }
+    }
+
+    private suspend fun acquire(gid: Long) {
+        val waiter = synchronized(this) {
+            if (mInUse < mLimit && mWaiters.isEmpty()) {
+                mInUse++
+                return
+            }
+            CompletableDeferred<Unit>().also { mWaiters.getOrPut(gid) { ArrayDeque() }.addLast(it) }
+        }
+        try {
+            waiter.await()
+        } catch (e: CancellationException) {
+            synchronized(this) {
+                val queue = mWaiters[gid]
+                if (queue?.remove(waiter) == true) {
+                    if (queue.isEmpty()) mWaiters.remove(gid)
+                    return@synchronized
+                }
+                // Permit has been handed to us already, pass it on
+                mInUse--
+                dispatch()
+            }
+            throw e
+        }
+    }
+
+    @Synchronized
+    private fun release() {
+        mInUse--
+        dispatch()
+    }
+
+    private fun dispatch() {
+        while (mInUse < mLimit) {
+            val gid = mWaiters.keys.maxByOrNull { mPriorities[it] ?: 0 } ?: return
+            val queue = mWaiters.remove(gid)!!
+            val waiter = queue.removeFirst()
+            // Re-insert at the tail so that galleries with the same priority take turns
+            if (queue.isNotEmpty()) mWaiters[gid] = queue
+            mInUse++
+            waiter.complete(Unit)
+        }
+    }
+}
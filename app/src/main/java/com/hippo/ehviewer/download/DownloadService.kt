@@ -265,12 +265,15 @@ class DownloadService :
             return
         }
         ensureDownloadingBuilder()
-        var speed = info.speed
+        // Show sum of all galleries when more than one is downloading
+        val count = mDownloadManager?.downloadingCount ?: 0
+        val aggregate = count > 1
+        var speed = if (aggregate) mDownloadManager!!.speed else info.speed
         if (speed < 0) {
             speed = 0
         }
         var text = FileUtils.humanReadableByteCount(speed, false) + "/s"
-        val remaining = info.remaining
+        val remaining = if (aggregate) mDownloadManager!!.remaining else info.remaining
         text = if (remaining >= 0) {
             getString(
                 R.string.download_speed_text_2,
@@ -280,6 +283,9 @@ class DownloadService :
         } else {
             getString(R.string.download_speed_text, text)
         }
+        if (aggregate) {
+            text = resources.getQuantityString(R.plurals.stat_download_gallery_count, count, count) + "\n" + text
+        }
         mDownloadingBuilder!!.setContentTitle(EhUtils.getSuitableTitle(info))
             .setContentText(text)
             .setStyle(NotificationCompat.BigTextStyle().bigText(text))
@@ -300,7 +306,8 @@ class DownloadService :
         if (mNotifyManager == null) {
             return
         }
-        if (null != mDownloadingDelay) {
+        // Other galleries are still downloading
+        if (null != mDownloadingDelay && mDownloadManager?.downloadingCount == 0) {
             mDownloadingDelay!!.cancel()
         }
         ensureDownloadedBuilder()
@@ -404,7 +411,8 @@ class DownloadService :
         if (mNotifyManager == null) {
             return
         }
-        if (null != mDownloadingDelay) {
+        // Other galleries are still downloading
+        if (null != mDownloadingDelay && mDownloadManager?.downloadingCount == 0) {
             mDownloadingDelay!!.cancel()
         }
         checkStopSelf()
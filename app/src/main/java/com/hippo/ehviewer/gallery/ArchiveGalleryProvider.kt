@@ -25,6 +25,7 @@ import com.hippo.ehviewer.GetText
 import com.hippo.ehviewer.R
 import com.hippo.ehviewer.Settings
 import com.hippo.ehviewer.jni.closeArchive
+import com.hippo.ehviewer.jni.extractRangeToByteBuffers
 import com.hippo.ehviewer.jni.extractToByteBuffer
 import com.hippo.ehviewer.jni.extractToFd
 import com.hippo.ehviewer.jni.getFilename
@@ -78,6 +79,8 @@ class ArchiveGalleryProvider(context: Context, private val uri: Uri, passwdFlow:
 
     override var size = -1
 
+    override val poolKey = uri.toString()
+
     override fun start() {
         hostJob.start()
     }
@@ -113,6 +116,29 @@ class ArchiveGalleryProvider(context: Context, private val uri: Uri, passwdFlow:
     private suspend fun doRealWork(index: Int) {
         val buffer = extractToByteBuffer(index)
         buffer ?: return
+        decode(index, buffer)
+    }
+
+    private suspend fun preload(pages: IntRange) {
+        val buffers = mSemaphore.withPermit { extractRangeToByteBuffers(pages.first, pages.last - pages.first + 1) }
+        var consumed = 0
+        try {
+            buffers.forEachIndexed { i, buffer ->
+                val index = pages.first + i
+                mWorkerMutex[index].withLock {
+                    consumed = i + 1
+                    buffer?.let { decode(index, it) }
+                }
+            }
+        } finally {
+            // Cancelled, release buffers which are not decoded
+            for (i in consumed until buffers.size) {
+                buffers[i]?.let { releaseByteBuffer(it) }
+            }
+        }
+    }
+
+    private suspend fun decode(index: Int, buffer: ByteBuffer) {
         check(buffer.isDirect)
         val src = object : ByteBufferSource {
             override val source: ByteBuffer = buffer
@@ -149,7 +175,11 @@ class ArchiveGalleryProvider(context: Context, private val uri: Uri, passwdFlow:
         get() = size != -1
 
     override fun onCancelRequest(index: Int) {
-        mJobMap[index]?.cancel()
+        synchronized(mJobMap) {
+            val job = mJobMap[index] ?: return
+            // Do not cancel preloads of other pages extracted in the same pass
+            if (mJobMap.values.count { it === job } == 1) job.cancel()
+        }
     }
 
     override fun getImageFilename(index: Int): String = FileUtils.getNameFromFilename(getImageFilenameWithExtension(index))
@@ -174,7 +204,25 @@ class ArchiveGalleryProvider(context: Context, private val uri: Uri, passwdFlow:
 
     override suspend fun downloadOriginal(index: Int, dir: UniFile, filename: String): UniFile? = null
 
-    override fun preloadPages(pages: List<Int>, pair: Pair<Int, Int>) {}
+    override fun preloadPages(pages: List<Int>, pair: Pair<Int, Int>) {
+        synchronized(mJobMap) {
+            val todo = pages.filter { mJobMap[it]?.isActive != true }.sorted()
+            // Consecutive pages are extracted in one pass over the archive, a few at a time as each holds a native buffer
+            var start = 0
+            while (start < todo.size) {
+                var end = start + 1
+                while (end < todo.size && end - start < MAX_PRELOAD_RUN && todo[end] == todo[end - 1] + 1) end++
+                val run = todo[start]..todo[end - 1]
+                val job = launch(start = CoroutineStart.LAZY) { preload(run) }
+                run.forEach { mJobMap[it] = job }
+                job.start()
+                start = end
+            }
+        }
+    }
 }
 
 private const val DEBUG_TAG = "ArchiveGalleryProvider"
+
+// Same as MAX_PARALLEL_DECOMP in archive.c
+private const val MAX_PRELOAD_RUN = 4
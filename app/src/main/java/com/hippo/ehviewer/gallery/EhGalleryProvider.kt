@@ -29,6 +29,8 @@ class EhGalleryProvider(private val mGalleryInfo: GalleryInfo) :
     GalleryProvider2(),
     OnSpiderListener {
     private lateinit var mSpiderQueen: SpiderQueen
+    override val poolKey = mGalleryInfo.gid.toString()
+
     override fun start() {
         mSpiderQueen = obtainSpiderQueen(mGalleryInfo, SpiderQueen.MODE_READ)
         mSpiderQueen.addOnSpiderListener(this)
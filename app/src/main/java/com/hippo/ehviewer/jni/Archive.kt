@@ -24,6 +24,7 @@ import java.nio.ByteBuffer
 external fun releaseByteBuffer(buffer: ByteBuffer)
 external fun openArchive(fd: Int, size: Long, sortEntries: Boolean): Int
 external fun extractToByteBuffer(index: Int): ByteBuffer?
+external fun extractRangeToByteBuffers(start: Int, count: Int): Array<ByteBuffer?>
 external fun extractToFd(index: Int, fd: Int): Boolean
 external fun getFilename(index: Int): String
 external fun needPassword(): Boolean
@@ -29,3 +29,11 @@ external fun nativeTexImage(
     width: Int,
     height: Int,
 )
+
+/**
+ * Find the region where [frame] differs from [last] and copy it to [last].
+ *
+ * @param dirty receives left, top, right, bottom of the region
+ * @return false if nothing changed
+ */
+external fun nativeDiffFrame(frame: Bitmap, last: Bitmap, dirty: IntArray): Boolean
@@ -18,6 +18,8 @@ package com.hippo.ehviewer.preference
 import android.annotation.SuppressLint
 import android.content.Context
 import android.util.AttributeSet
+import android.widget.TextView
+import com.hippo.ehviewer.EhApplication
 import com.hippo.ehviewer.GetText
 import com.hippo.ehviewer.R
 import com.hippo.ehviewer.Settings
@@ -36,8 +38,19 @@ import com.hippo.unifile.openInputStream
 import com.hippo.util.launchUI
 import com.hippo.util.runSuspendCatching
 import com.hippo.util.withUIContext
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.cbor.Cbor
+import kotlinx.serialization.decodeFromByteArray
+import kotlinx.serialization.encodeToByteArray
 import okio.buffer
 import okio.source
 
@@ -51,43 +64,109 @@ class RestoreDownloadPreference(
     @SuppressLint("ParcelCreator")
     private class RestoreItem(val dirname: String, gid: Long, token: String) : BaseGalleryInfo(gid, token)
 
-    private fun getRestoreItem(dir: UniFile): RestoreItem? {
-        if (!dir.isDirectory) return null
-        return runCatching {
-            val result = dir.findFile(SPIDER_INFO_FILENAME)?.let {
-                readFromUniFile(it)?.run {
-                    GalleryDetailUrlParser.Result(gid, token!!)
-                }
-            } ?: dir.findFile(COMIC_INFO_FILE)?.let { file ->
-                file.openInputStream().source().buffer().use {
-                    GalleryDetailUrlParser.parse(it.readUtf8())
-                }.also {
-                    it?.apply { nonSpiderInfoItemList.add(gid) }
-                }
-            } ?: return null
-            val gid = result.gid
-            val dirname = dir.name!!
-            if (DownloadManager.containDownloadInfo(gid)) {
-                // Restore download dir to avoid re-download
-                val dbDirname = DownloadManager.getDownloadDirname(gid)
-                if (null == dbDirname || dirname != dbDirname) {
-                    DownloadManager.putDownloadDirname(gid, dirname)
-                    restoreDirCount++
-                }
-                return null
+    /**
+     * Gallery found in a download dir, [gid] is -1 if there is none.
+     * Kept with the modified time of the dir so that unchanged dirs are not read again.
+     */
+    @Serializable
+    private class ScannedDir(val lastModified: Long, val gid: Long, val token: String, val fromComicInfo: Boolean)
+
+    // Children are listed once, null if the dir can not be read
+    private fun scanDir(dir: UniFile, lastModified: Long): ScannedDir? = runCatching {
+        val children = dir.listEntries() ?: return null
+        children.find { it.name == SPIDER_INFO_FILENAME }?.let { readFromUniFile(it.file) }?.run {
+            ScannedDir(lastModified, gid, token!!, false)
+        } ?: children.find { it.name == COMIC_INFO_FILE }?.let { entry ->
+            entry.file.openInputStream().source().buffer().use {
+                GalleryDetailUrlParser.parse(it.readUtf8())
             }
-            RestoreItem(dirname, gid, result.token)
-        }.onFailure {
-            it.printStackTrace()
-        }.getOrNull()
+        }?.run {
+            ScannedDir(lastModified, gid, token, true)
+        } ?: ScannedDir(lastModified, -1, "", false)
+    }.onFailure {
+        it.printStackTrace()
+    }.getOrNull()
+
+    private fun getRestoreItem(dirname: String, scanned: ScannedDir): RestoreItem? {
+        val gid = scanned.gid
+        if (DownloadManager.containDownloadInfo(gid)) {
+            // Restore download dir to avoid re-download
+            val dbDirname = DownloadManager.getDownloadDirname(gid)
+            if (null == dbDirname || dirname != dbDirname) {
+                DownloadManager.putDownloadDirname(gid, dirname)
+                restoreDirCount++
+            }
+            return null
+        }
+        if (scanned.fromComicInfo) nonSpiderInfoItemList.add(gid)
+        return RestoreItem(dirname, gid, scanned.token)
     }
 
+    private fun readScanCache(): Map<String, ScannedDir> = runCatching {
+        cbor.decodeFromByteArray<Map<String, ScannedDir>>(scanCacheFile.readBytes())
+    }.getOrNull().orEmpty()
+
+    private fun writeScanCache(scanned: Map<String, ScannedDir>) = runCatching {
+        scanCacheFile.writeBytes(cbor.encodeToByteArray(scanned))
+    }.onFailure {
+        it.printStackTrace()
+    }
+
+    private fun showProgress(scanned: Int, total: Int) {
+        launchUI {
+            mDialog.findViewById<TextView>(R.id.message)?.text = RESTORE_PROGRESS_MSG(scanned, total)
+        }
+    }
+
+    /**
+     * Dirs are read concurrently, found galleries are looked up in chunks as they come.
+     */
     private suspend fun doRealWork(): List<RestoreItem>? {
         val dir = Settings.downloadLocation ?: return null
-        val files = dir.listFiles() ?: return null
+        val dirs = dir.listEntries()?.filter { it.isDirectory && it.name != null } ?: return null
+        val scanCache = readScanCache()
+        val newScanCache = ConcurrentHashMap<String, ScannedDir>()
         return runSuspendCatching {
-            files.mapNotNull { getRestoreItem(it) }.also {
-                fillGalleryListByApi(it, EhUrl.referer)
+            coroutineScope {
+                val found = Channel<Pair<String, ScannedDir>>(Channel.UNLIMITED)
+                launch {
+                    val semaphore = Semaphore(SCAN_CONCURRENCY)
+                    val done = AtomicInteger()
+                    dirs.map { entry ->
+                        launch {
+                            val dirname = entry.name!!
+                            // Modified time changes as files are added or removed
+                            val scanned = scanCache[dirname]?.takeIf { entry.lastModified > 0 && it.lastModified == entry.lastModified }
+                                ?: semaphore.withPermit { scanDir(entry.file, entry.lastModified) }
+                            scanned?.let {
+                                newScanCache[dirname] = it
+                                if (it.gid != -1L) found.send(dirname to it)
+                            }
+                            val count = done.incrementAndGet()
+                            if (count % PROGRESS_STEP == 0 || count == dirs.size) showProgress(count, dirs.size)
+                        }
+                    }.joinAll()
+                    found.close()
+                }
+                // DownloadManager is only touched here, one item at a time
+                val apiSemaphore = Semaphore(Settings.apiConcurrency)
+                val items = mutableListOf<RestoreItem>()
+                val chunk = mutableListOf<RestoreItem>()
+                fun lookup(list: List<RestoreItem>) = launch { apiSemaphore.withPermit { fillGalleryListByApi(list, EhUrl.referer) } }
+                val lookups = mutableListOf<Job>()
+                for ((dirname, scanned) in found) {
+                    val item = getRestoreItem(dirname, scanned) ?: continue
+                    items.add(item)
+                    chunk.add(item)
+                    if (chunk.size == GDATA_CHUNK_SIZE) {
+                        lookups.add(lookup(chunk.toList()))
+                        chunk.clear()
+                    }
+                }
+                if (chunk.isNotEmpty()) lookups.add(lookup(chunk))
+                lookups.joinAll()
+                writeScanCache(newScanCache)
+                items
             }
         }.onFailure {
             it.printStackTrace()
@@ -147,6 +226,13 @@ class RestoreDownloadPreference(
         private val RESTORE_FAILED = GetText.getString(R.string.settings_download_restore_failed)
         private val RESTORE_COUNT_MSG =
             { cnt: Int -> if (cnt == 0) RESTORE_NOT_FOUND else GetText.getString(R.string.settings_download_restore_successfully, cnt) }
+        private val RESTORE_PROGRESS_MSG =
+            { scanned: Int, total: Int -> GetText.getString(R.string.settings_download_restore_progress, scanned, total) }
+        private const val SCAN_CONCURRENCY = 8
+        private const val GDATA_CHUNK_SIZE = 25
+        private const val PROGRESS_STEP = 20
+        private val cbor = Cbor { ignoreUnknownKeys = true }
+        private val scanCacheFile by lazy { (EhApplication.cacheDir / "restore_scan").toFile() }
     }
 }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.ehviewer.spider
+
+import androidx.collection.SparseArrayCompat
+import androidx.collection.set
+import com.hippo.unifile.FilenameFilter
+import com.hippo.unifile.UniFile
+
+/**
+ * Maps page index to image filename for a gallery download dir.
+ * The dir is listed once on first access, later changes must be reported with [put] and [remove].
+ */
+class ImageFileIndex(val dir: UniFile, private val extensions: Array<String>) {
+    private var mNames: SparseArrayCompat<String>? = null
+
+    private fun scan(): SparseArrayCompat<String> {
+        val names = SparseArrayCompat<String>()
+        // Only collect names here, TreeDocumentFile.name costs a query per file
+        dir.listFiles(
+            object : FilenameFilter {
+                override fun accept(dir: UniFile?, filename: String?): Boolean {
+                    val name = filename ?: return false
+                    val index = parseIndex(name) ?: return false
+                    val old = names.get(index)
+                    if (old == null || priority(name) < priority(old)) {
+                        names[index] = name
+                    }
+                    return false
+                }
+            },
+        )
+        return names
+    }
+
+    private fun names(): SparseArrayCompat<String> = mNames ?: scan().also { mNames = it }
+
+    private fun parseIndex(name: String): Int? {
+        if (name.length <= INDEX_LENGTH || priority(name) < 0) return null
+        for (i in 0 until INDEX_LENGTH) {
+            if (name[i] !in '0'..'9') return null
+        }
+        return name.substring(0, INDEX_LENGTH).toInt() - 1
+    }
+
+    private fun priority(name: String): Int = extensions.indexOf(name.substring(INDEX_LENGTH))
+
+    @Synchronized
+    operator fun contains(index: Int): Boolean = names().containsKey(index)
+
+    @Synchronized
+    fun getName(index: Int): String? = names().get(index)
+
+    @Synchronized
+    fun find(index: Int): UniFile? = names().get(index)?.let { dir.subFile(it) }
+
+    @Synchronized
+    fun put(index: Int, name: String) {
+        names()[index] = name
+    }
+
+    @Synchronized
+    fun remove(index: Int): UniFile? {
+        val names = names()
+        val name = names.get(index) ?: return null
+        names.remove(index)
+        return dir.subFile(name)
+    }
+
+    companion object {
+        private const val INDEX_LENGTH = 8
+    }
+}
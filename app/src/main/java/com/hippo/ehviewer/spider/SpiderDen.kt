@@ -29,7 +29,6 @@ import com.hippo.ehviewer.gallery.GalleryProvider2.Companion.SUPPORT_IMAGE_EXTEN
 import com.hippo.image.UniFileSource
 import com.hippo.unifile.UniFile
 import com.hippo.unifile.openOutputStream
-import com.hippo.unifile.sha1
 import com.hippo.util.runInterruptibleOkio
 import com.hippo.util.runSuspendCatching
 import com.hippo.util.sendTo
@@ -39,6 +38,7 @@ import java.io.IOException
 import java.util.Locale
 import okhttp3.Response
 import okhttp3.coroutines.executeAsync
+import okio.HashingSink
 import okio.buffer
 import okio.sink
 
@@ -46,6 +46,12 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
     private val fileHashRegex = Regex("/h/([0-9a-f]{40})")
     private val mGid = mGalleryInfo.gid
     var downloadDir: UniFile? = null
+        set(value) {
+            field = value
+            mDirIndex = value?.let { ImageFileIndex(it, COMPAT_IMAGE_EXTENSIONS) }
+        }
+    private var mDirIndex: ImageFileIndex? = null
+    private var mOldDirIndex: ImageFileIndex? = null
 
     @Volatile
     @SpiderQueen.Mode
@@ -64,13 +70,11 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
         return sCache.openSnapshot(key)?.use { true } == true
     }
 
-    private fun containInDownloadDir(index: Int): Boolean {
-        val dir = downloadDir ?: return false
-        return findImageFile(dir, index) != null
-    }
+    private fun containInDownloadDir(index: Int): Boolean = mDirIndex?.contains(index) == true
 
     private fun copyFromCacheToDownloadDir(index: Int, skip: Boolean): Boolean {
         val dir = downloadDir ?: return false
+        val dirIndex = mDirIndex ?: return false
         // Find image file in cache
         val key = getImageKey(mGid, index)
         return runCatching {
@@ -82,8 +86,10 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
                     return false
                 }
                 // Copy from cache to download dir
-                val file = dir.createFile(perFilename(index, extension)) ?: return false
+                val filename = perFilename(index, extension)
+                val file = dir.createFile(filename) ?: return false
                 UniFile.fromFile(data.toFile())!! sendTo file
+                dirIndex.put(index, filename)
             }
         }.getOrElse {
             it.printStackTrace()
@@ -93,11 +99,19 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
 
     fun copyFromUniFileToDownloadDir(oldDir: UniFile, oldIndex: Int, index: Int): Boolean {
         val dir = downloadDir ?: return false
+        val dirIndex = mDirIndex ?: return false
+        val oldDirIndex = synchronized(this) {
+            mOldDirIndex?.takeIf { it.dir === oldDir }
+                ?: ImageFileIndex(oldDir, COMPAT_IMAGE_EXTENSIONS).also { mOldDirIndex = it }
+        }
         return runCatching {
-            val oldFile = findImageFile(oldDir, oldIndex) ?: return false
-            val extension = oldFile.name.let { name -> FileUtils.getExtensionFromFilename(name) }
-            val file = dir.createFile(perFilename(index, ".$extension")) ?: return false
+            val oldName = oldDirIndex.getName(oldIndex) ?: return false
+            val oldFile = oldDir.subFile(oldName) ?: return false
+            val extension = FileUtils.getExtensionFromFilename(oldName)
+            val filename = perFilename(index, ".$extension")
+            val file = dir.createFile(filename) ?: return false
             oldFile sendTo file
+            dirIndex.put(index, filename)
             true
         }.getOrElse {
             it.printStackTrace()
@@ -122,14 +136,14 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
         return sCache.remove(key)
     }
 
-    private fun removeFromDownloadDir(index: Int): Boolean = downloadDir?.let { findImageFile(it, index)?.delete() } == true
+    private fun removeFromDownloadDir(index: Int): Boolean = mDirIndex?.remove(index)?.delete() == true
 
     fun remove(index: Int): Boolean = removeFromCache(index) or removeFromDownloadDir(index)
 
     private fun findDownloadFileForIndex(index: Int, extension: String): UniFile? {
         val dir = downloadDir ?: return null
-        val ext = fixExtension(".$extension")
-        return dir.createFile(perFilename(index, ext))
+        val filename = perFilename(index, fixExtension(".$extension"))
+        return dir.createFile(filename)?.also { mDirIndex?.put(index, filename) }
     }
 
     @Throws(IOException::class)
@@ -186,8 +200,12 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
 
         suspend fun doSave(outFile: UniFile): Long {
             var ret = 0L
+            val expected = fileHashRegex.find(url)?.groupValues?.get(1)
             runInterruptibleOkio {
-                outFile.openOutputStream().sink().buffer().use { sink ->
+                // Hash segments on their way to the file instead of reading the file back
+                val fileSink = outFile.openOutputStream().sink()
+                val hashingSink = expected?.let { HashingSink.sha1(fileSink) }
+                (hashingSink ?: fileSink).buffer().use { sink ->
                     response.body.source().use { source ->
                         while (true) {
                             val bytesRead = source.read(sink.buffer, 8192)
@@ -198,9 +216,8 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
                         }
                     }
                 }
-                fileHashRegex.find(url)?.let {
-                    val expected = it.groupValues[1]
-                    val actual = outFile.sha1()
+                hashingSink?.let {
+                    val actual = it.hash.hex()
                     check(expected == actual) { "File hash mismatch: expected $expected, but got $actual\nURL: $url" }
                 }
             }
@@ -211,6 +228,8 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
             return doSave(this) == length
         }?.onFailure {
             it.printStackTrace()
+            // Do not leave a broken image in download dir
+            removeFromDownloadDir(index)
             return false
         }
 
@@ -249,7 +268,7 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
 
         // Read from download dir
         runCatching {
-            findImageFile(downloadDir!!, index)!! sendTo file
+            mDirIndex!!.find(index)!! sendTo file
         }.onFailure {
             it.printStackTrace()
             return false
@@ -262,8 +281,7 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
     fun getExtension(index: Int): String? {
         val key = getImageKey(mGid, index)
         return sCache.openSnapshot(key)?.use { it.metadata.toFile().readText() }
-            ?: downloadDir?.let { findImageFile(it, index) }
-                ?.name.let { FileUtils.getExtensionFromFilename(it) }
+            ?: mDirIndex?.getName(index)?.let { FileUtils.getExtensionFromFilename(it) }
     }
 
     fun getImageSource(index: Int): UniFileSource? {
@@ -276,8 +294,7 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
                 }
             }
         }
-        val dir = downloadDir ?: return null
-        val source = findImageFile(dir, index) ?: return null
+        val source = mDirIndex?.find(index) ?: return null
         return object : UniFileSource {
             override val source = source
             override fun close() {}
@@ -294,8 +311,6 @@ class SpiderDen(private val mGalleryInfo: GalleryInfo) {
         private fun fixExtension(extension: String): String = extension.takeIf { SUPPORT_IMAGE_EXTENSIONS.contains(it) }
             ?: SUPPORT_IMAGE_EXTENSIONS[0]
 
-        fun findImageFile(dir: UniFile, index: Int): UniFile? = COMPAT_IMAGE_EXTENSIONS.firstNotNullOfOrNull { dir.findFile(perFilename(index, it)) }
-
         /**
          * @param extension with dot
          */
@@ -17,6 +17,7 @@ package com.hippo.ehviewer.spider
 
 import coil3.disk.DiskCache
 import com.hippo.ehviewer.EhApplication
+import com.hippo.ehviewer.client.parser.GalleryPageApiParser
 import com.hippo.ehviewer.coil.edit
 import com.hippo.unifile.UniFile
 import com.hippo.unifile.openInputStream
@@ -24,7 +25,9 @@ import com.hippo.unifile.openOutputStream
 import com.hippo.util.runSuspendCatching
 import com.hippo.yorozuya.NumberUtils
 import java.io.InputStream
+import kotlin.time.TimeMark
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
 import kotlinx.serialization.cbor.Cbor
 import kotlinx.serialization.decodeFromByteArray
 import kotlinx.serialization.encodeToByteArray
@@ -41,7 +44,19 @@ class SpiderInfo(
     var previewPages: Int = -1,
     var previewPerPage: Int = -1,
     var upgradeFrom: Long? = null,
-)
+) {
+    // Key of multi-page viewer for image dispatch, valid in this session only
+    @Transient
+    var mpvKey: String? = null
+
+    // Image urls resolved ahead of download, they expire soon
+    @Transient
+    val imageUrlMap: MutableMap<Int, ResolvedImage> = hashMapOf()
+}
+
+class ResolvedImage(val result: GalleryPageApiParser.Result, private val expireTime: TimeMark) {
+    val isExpired get() = expireTime.hasPassedNow()
+}
 
 private val cbor = Cbor { ignoreUnknownKeys = true }
 
@@ -29,20 +29,31 @@ import com.hippo.ehviewer.client.EhRequestBuilder
 import com.hippo.ehviewer.client.EhUrl
 import com.hippo.ehviewer.client.EhUtils.isMPVAvailable
 import com.hippo.ehviewer.client.data.GalleryInfo
+import com.hippo.ehviewer.client.data.PreviewSet
 import com.hippo.ehviewer.client.exception.QuotaExceededException
 import com.hippo.ehviewer.client.parser.GalleryDetailParser
+import com.hippo.ehviewer.client.parser.GalleryPageApiParser
 import com.hippo.ehviewer.client.parser.GalleryPageUrlParser
+import com.hippo.ehviewer.download.DownloadPermitPool
 import com.hippo.image.Image
 import com.hippo.unifile.UniFile
 import com.hippo.util.ExceptionUtils
+import com.hippo.util.SingleFlight
 import com.hippo.util.launchIO
 import com.hippo.util.runSuspendCatching
+import com.hippo.util.withUIContext
+import com.hippo.yorozuya.SimpleHandler
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.minutes
 import kotlin.time.Duration.Companion.seconds
 import kotlin.time.TimeSource
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.TimeoutCancellationException
@@ -96,19 +107,54 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
         }
     }
 
-    fun notifyPageDownload(index: Int, contentLength: Long, receivedSize: Long, bytesRead: Int) {
-        synchronized(mSpiderListeners) {
-            mSpiderListeners.forEach {
-                it.onPageDownload(
-                    index,
-                    contentLength,
-                    receivedSize,
-                    bytesRead,
-                )
+    private val mProgress = object : Runnable {
+        private val mPages = ConcurrentHashMap<Int, PageProgress>()
+        private val mScheduled = AtomicBoolean(false)
+
+        // Called for every chunk read, only touches counters of the page
+        fun onRead(index: Int, contentLength: Long, receivedSize: Long, bytesRead: Int) {
+            val page = mPages.getOrPut(index) { PageProgress() }
+            page.contentLength = contentLength
+            page.receivedSize = receivedSize
+            page.bytesRead.addAndGet(bytesRead.toLong())
+            page.done = false
+            schedule()
+        }
+
+        fun onDone(index: Int) {
+            mPages[index]?.let {
+                it.done = true
+                schedule()
+            }
+        }
+
+        private fun schedule() {
+            if (mScheduled.compareAndSet(false, true)) {
+                SimpleHandler.getInstance().postDelayed(this, PROGRESS_INTERVAL)
+            }
+        }
+
+        // Publish one snapshot of all downloading pages on the main thread
+        override fun run() {
+            mScheduled.set(false)
+            mPages.forEach { (index, page) ->
+                if (page.done) mPages.remove(index, page)
+                val bytesRead = page.bytesRead.getAndSet(0)
+                if (bytesRead > 0) {
+                    synchronized(mSpiderListeners) {
+                        mSpiderListeners.forEach {
+                            it.onPageDownload(index, page.contentLength, page.receivedSize, bytesRead.toInt())
+                        }
+                    }
+                }
             }
         }
     }
 
+    fun notifyPageDownload(index: Int, contentLength: Long, receivedSize: Long, bytesRead: Int) {
+        mProgress.onRead(index, contentLength, receivedSize, bytesRead)
+    }
+
     private fun notifyPageSuccess(index: Int) {
         synchronized(mSpiderListeners) {
             mSpiderListeners.forEach {
@@ -407,64 +453,197 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
     private suspend fun getPTokenFromMultiPageViewer(gid: Long, token: String, spiderInfo: SpiderInfo) {
         if (!isMPVAvailable) return
         runSuspendCatching {
-            EhEngine.getPTokenFromMultiPageViewer(
+            EhEngine.getMultiPageViewer(
                 gid,
                 token,
                 GET_FULL_HASH,
-            ).forEachIndexed { index, pToken ->
-                spiderInfo.pTokenMap[index] = pToken
+            ).also { result ->
+                synchronized(spiderInfo.pTokenMap) {
+                    spiderInfo.mpvKey = result.mpvKey
+                    result.pTokens.forEachIndexed { index, pToken -> spiderInfo.pTokenMap[index] = pToken }
+                }
             }
         }.onFailure {
             it.printStackTrace()
         }
     }
 
-    private suspend fun getPTokenFromMultiPageViewer(index: Int): String? {
-        getPTokenFromMultiPageViewer(galleryInfo.gid, galleryInfo.token!!, mSpiderInfo)
-        return mSpiderInfo.pTokenMap[index]
+    suspend fun getPToken(index: Int): String? {
+        if (index !in 0 until size) return null
+        return mPTokenResolver.get(index)
     }
 
-    private suspend fun getPTokenFromInternet(index: Int): String? {
-        // Check previewIndex
-        val previewIndex = if (mSpiderInfo.previewPerPage >= 0) {
-            (index / mSpiderInfo.previewPerPage).coerceAtMost(mSpiderInfo.previewPages.takeIf { it > 0 }?.minus(1) ?: Int.MAX_VALUE)
-        } else {
-            0
+    private val mPTokenResolver = object {
+        // In-flight detail preview page requests, shared by all workers waiting for the same page
+        private val mPreviewJobs = SingleFlight<Int, Unit>(this@SpiderQueen)
+        private val mSemaphore = Semaphore(PREVIEW_FETCH_CONCURRENCY)
+        private val mMultiPageViewerLock = Mutex()
+
+        @Volatile
+        private var mMultiPageViewerRequested = false
+
+        private fun cached(index: Int): String? = synchronized(mSpiderInfo.pTokenMap) { mSpiderInfo.pTokenMap[index] }
+
+        private fun previewIndexOf(index: Int): Int = synchronized(mSpiderInfo.pTokenMap) {
+            val previewPerPage = mSpiderInfo.previewPerPage
+            if (previewPerPage > 0) {
+                (index / previewPerPage).coerceAtMost(mSpiderInfo.previewPages.takeIf { it > 0 }?.minus(1) ?: Int.MAX_VALUE)
+            } else {
+                0
+            }
         }
-        val url = EhUrl.getGalleryDetailUrl(
-            galleryInfo.gid,
-            galleryInfo.token,
-            previewIndex,
-            false,
-            GET_FULL_HASH,
-        )
-        val request = EhRequestBuilder(url, EhUrl.referer).build()
-        return runSuspendCatching {
-            plainTextOkHttpClient.newCall(request).executeAsync().use { response ->
-                val body = response.body.string()
-                readPreviews(body, previewIndex, mSpiderInfo)
-                mSpiderInfo.pTokenMap[index]
+
+        suspend fun get(index: Int): String? = cached(index)
+            ?: getFromMultiPageViewer(index)
+            ?: getFromPreviewPage(index)
+            // Preview size may changed, so try to get pToken twice
+            ?: getFromPreviewPage(index)
+
+        private suspend fun getFromMultiPageViewer(index: Int): String? {
+            // MPV is requested at most once, pages it missed go to preview pages
+            if (!isMPVAvailable || mMultiPageViewerRequested) return null
+            // One request fills all pTokens, let the others wait for it
+            return mMultiPageViewerLock.withLock {
+                cached(index) ?: run {
+                    if (!mMultiPageViewerRequested) {
+                        getPTokenFromMultiPageViewer(galleryInfo.gid, galleryInfo.token!!, mSpiderInfo)
+                        mMultiPageViewerRequested = true
+                    }
+                    cached(index)
+                }
+            }
+        }
+
+        /**
+         * pTokens may come from cache without the key, then request MPV once for it.
+         */
+        suspend fun getMultiPageViewerKey(): String? {
+            if (!isMPVAvailable) return null
+            mSpiderInfo.mpvKey?.let { return it }
+            return mMultiPageViewerLock.withLock {
+                if (!mMultiPageViewerRequested) {
+                    getPTokenFromMultiPageViewer(galleryInfo.gid, galleryInfo.token!!, mSpiderInfo)
+                    mMultiPageViewerRequested = true
+                }
+                mSpiderInfo.mpvKey
+            }
+        }
+
+        private suspend fun getFromPreviewPage(index: Int): String? {
+            fetchPreviewPage(previewIndexOf(index)).await()
+            return cached(index)
+        }
+
+        private fun fetchPreviewPage(previewIndex: Int): Deferred<Unit> = mPreviewJobs.launch(previewIndex) {
+            mSemaphore.withPermit { requestPreviewPage(previewIndex) }
+        }
+
+        private suspend fun requestPreviewPage(previewIndex: Int) {
+            mWorkerScope.awaitDownloadDelay()
+            val url = EhUrl.getGalleryDetailUrl(
+                galleryInfo.gid,
+                galleryInfo.token,
+                previewIndex,
+                false,
+                GET_FULL_HASH,
+            )
+            val request = EhRequestBuilder(url, EhUrl.referer).build()
+            runSuspendCatching {
+                plainTextOkHttpClient.newCall(request).executeAsync().use { response ->
+                    val body = response.body.string()
+                    synchronized(mSpiderInfo.pTokenMap) { readPreviews(body, previewIndex, mSpiderInfo) }
+                }
+            }.onFailure {
+                it.printStackTrace()
+            }
+        }
+
+        /**
+         * Fetch preview pages holding missing pTokens of the pages following [index],
+         * kept to a window ahead of the workers.
+         */
+        fun prefetchAhead(index: Int) {
+            val indices = index + 1 until (index + PTOKEN_PREFETCH_WINDOW).coerceAtMost(size)
+            if (indices.all { cached(it) != null }) return
+            launch {
+                getFromMultiPageViewer(indices.first)
+                val missing = synchronized(mSpiderInfo.pTokenMap) {
+                    if (mSpiderInfo.previewPerPage <= 0) return@launch
+                    indices.filter { it !in mSpiderInfo.pTokenMap }
+                }
+                missing.map { previewIndexOf(it) }.distinct().forEach { fetchPreviewPage(it) }
             }
-        }.getOrElse {
-            it.printStackTrace()
-            null
         }
     }
 
-    suspend fun getPToken(index: Int): String? {
-        if (index !in 0 until size) return null
-        return mSpiderInfo.pTokenMap[index]
-            ?: getPTokenFromMultiPageViewer(index)
-            ?: getPTokenFromInternet(index)
-            // Preview size may changed, so try to get pToken twice
-            ?: getPTokenFromInternet(index)
+    private val mImageUrlResolver = object {
+        // In-flight image dispatches, shared like preview pages
+        private val mDispatchJobs = SingleFlight<Int, Unit>(this@SpiderQueen)
+
+        private fun isResolved(index: Int): Boolean = synchronized(mSpiderInfo.imageUrlMap) {
+            mSpiderInfo.imageUrlMap[index]?.isExpired == false
+        }
+
+        /**
+         * Get the image url of [index] through MPV, resolving the following pages along with it.
+         * A resolved url is handed out once.
+         *
+         * @return null if MPV is not available
+         */
+        suspend fun take(index: Int): GalleryPageApiParser.Result? {
+            val mpvKey = mPTokenResolver.getMultiPageViewerKey() ?: return null
+            // Downloading galleries share the look-ahead
+            val window = MPV_DISPATCH_WINDOW / DownloadPermitPool.galleryCount.coerceAtLeast(1)
+            (index + 1 until (index + window).coerceAtMost(size)).forEach {
+                if (it !in mSpiderDen) dispatch(it, mpvKey, true)
+            }
+            dispatch(index, mpvKey, false)?.await()
+            return synchronized(mSpiderInfo.imageUrlMap) {
+                mSpiderInfo.imageUrlMap.remove(index)
+            }?.takeUnless { it.isExpired }?.result
+        }
+
+        suspend fun skipHath(index: Int, skipHathKey: String?): GalleryPageApiParser.Result? {
+            val mpvKey = mSpiderInfo.mpvKey ?: return null
+            val pToken = getPToken(index) ?: return null
+            return runSuspendCatching {
+                EhEngine.getImageDispatch(galleryInfo.gid, galleryInfo.token, index, pToken.take(10), mpvKey, skipHathKey)
+            }.onFailure {
+                it.printStackTrace()
+            }.getOrNull()
+        }
+
+        /**
+         * @param ahead nobody waits for it yet, then it waits for the download delay like other requests
+         */
+        private fun dispatch(index: Int, mpvKey: String, ahead: Boolean): Deferred<Unit>? {
+            if (isResolved(index)) return null
+            return mDispatchJobs.launch(index) {
+                if (ahead) mWorkerScope.awaitDownloadDelay()
+                sDispatchSemaphore.withPermit { requestImageDispatch(index, mpvKey) }
+            }
+        }
+
+        private suspend fun requestImageDispatch(index: Int, mpvKey: String) {
+            val pToken = getPToken(index) ?: return
+            runSuspendCatching {
+                EhEngine.getImageDispatch(galleryInfo.gid, galleryInfo.token, index, pToken.take(10), mpvKey)
+            }.onSuccess {
+                val resolved = ResolvedImage(it, TimeSource.Monotonic.markNow() + MPV_IMAGE_URL_EXPIRE)
+                synchronized(mSpiderInfo.imageUrlMap) { mSpiderInfo.imageUrlMap[index] = resolved }
+            }.onFailure {
+                it.printStackTrace()
+            }
+        }
     }
 
     @Synchronized
     private fun writeSpiderInfoToLocal() {
         if (!isReady) return
-        mSpiderDen.downloadDir?.run { createFile(SPIDER_INFO_FILENAME)?.also { mSpiderInfo.saveToUniFile(it) } }
-        mSpiderInfo.saveToCache()
+        synchronized(mSpiderInfo.pTokenMap) {
+            mSpiderDen.downloadDir?.run { createFile(SPIDER_INFO_FILENAME)?.also { mSpiderInfo.saveToUniFile(it) } }
+            mSpiderInfo.saveToCache()
+        }
     }
 
     private fun isStateDone(state: Int): Boolean = state == STATE_FINISHED || state == STATE_FAILED
@@ -487,6 +666,7 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
         }
 
         // Notify listeners
+        if (isStateDone(state)) mProgress.onDone(index)
         if (state == STATE_FAILED) {
             notifyPageFailure(index, error)
         } else if (state == STATE_FINISHED) {
@@ -502,9 +682,27 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
     @IntDef(STATE_NONE, STATE_DOWNLOADING, STATE_FINISHED, STATE_FAILED)
     @Retention(AnnotationRetention.SOURCE)
     annotation class State
+    private class PageProgress {
+        @Volatile
+        var contentLength = 0L
+
+        @Volatile
+        var receivedSize = 0L
+        val bytesRead = AtomicLong(0)
+
+        // Finished, dropped once its last bytes are published
+        @Volatile
+        var done = false
+    }
+
     interface OnSpiderListener {
         fun onGetPages(pages: Int)
         fun onGet509(index: Int)
+
+        /**
+         * Called on the main thread, at most once per [PROGRESS_INTERVAL] for each downloading page.
+         * [bytesRead] is the sum since the last call.
+         */
         fun onPageDownload(index: Int, contentLength: Long, receivedSize: Long, bytesRead: Int)
         fun onPageSuccess(index: Int, finished: Int, downloaded: Int, total: Int)
         fun onPageFailure(index: Int, error: String?, finished: Int, downloaded: Int, total: Int)
@@ -516,23 +714,38 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
     private val mWorkerScope = object {
         private val mFetcherJobMap = hashMapOf<Int, Job>()
         private val mSemaphore = Semaphore(Settings.downloadThreadCount)
-        private val pTokenLock = Mutex()
+        private val delayLock = Mutex()
         private var showKey: String? = null
         private val showKeyLock = Mutex()
         private val mDownloadDelay = Settings.downloadDelay.milliseconds
         private val downloadTimeout = Settings.downloadTimeout.seconds
         private var lastRequestTime = TimeSource.Monotonic.markNow()
+        @Volatile
         private var isDownloadMode = false
 
         fun cancelDecode(index: Int) {
             decoder.cancel(index)
         }
 
+        // Requests to the site are spaced by the download delay
+        suspend fun awaitDownloadDelay() {
+            delayLock.withLock {
+                delay(mDownloadDelay - lastRequestTime.elapsedNow())
+                lastRequestTime = TimeSource.Monotonic.markNow()
+            }
+        }
+
         @Synchronized
         fun enterDownloadMode() {
             if (isDownloadMode) return
-            updateRAList((0 until size).toList())
             isDownloadMode = true
+            synchronized(mFetcherJobMap) {
+                (0 until size).forEach {
+                    if (mFetcherJobMap[it]?.isActive != true) {
+                        doLaunchDownloadJob(it, false)
+                    }
+                }
+            }
         }
 
         fun updateRAList(list: List<Int>, cancelBounds: Pair<Int, Int> = 0 to Int.MAX_VALUE) {
@@ -567,10 +780,18 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
             val skipHath = force && currentJob?.isActive == true
             if (force) currentJob?.cancel(CancellationException(FORCE_RETRY))
             if (currentJob?.isActive != true) {
+                // Download mode shares page permits with other downloading galleries
+                val downloadMode = isDownloadMode
                 mFetcherJobMap[index] = launch {
                     runCatching {
-                        mSemaphore.withPermit {
-                            doInJob(index, force, skipHath)
+                        if (downloadMode) {
+                            DownloadPermitPool.withPermit(galleryInfo.gid) {
+                                doInJob(index, force, skipHath)
+                            }
+                        } else {
+                            mSemaphore.withPermit {
+                                doInJob(index, force, skipHath)
+                            }
                         }
                     }.onFailure {
                         if (it is CancellationException) {
@@ -598,37 +819,52 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
         private suspend fun doInJob(index: Int, force: Boolean, skipHath: Boolean) {
             val previousPToken: String?
             val pToken: String
-            pTokenLock.withLock {
-                if (!force && index in mSpiderDen) {
-                    return updatePageState(index, STATE_FINISHED)
-                }
-                pToken = getPToken(index) ?: return updatePageState(index, STATE_FAILED, PTOKEN_FAILED_MESSAGE)
-                previousPToken = getPToken(index - 1)
-
-                mOldDownloadDir?.let { oldDir ->
-                    (mOldHashMap?.get(pToken) ?: mOldHashMap?.get(pToken.take(10)))?.let { oldIndex ->
-                        if (mSpiderDen.copyFromUniFileToDownloadDir(oldDir, oldIndex, index)) {
-                            return updatePageState(index, STATE_FINISHED)
-                        }
+            if (!force && index in mSpiderDen) {
+                return updatePageState(index, STATE_FINISHED)
+            }
+            // Workers only wait for the preview page holding their own pTokens
+            pToken = getPToken(index) ?: return updatePageState(index, STATE_FAILED, PTOKEN_FAILED_MESSAGE)
+            previousPToken = getPToken(index - 1)
+
+            mOldDownloadDir?.let { oldDir ->
+                (mOldHashMap?.get(pToken) ?: mOldHashMap?.get(pToken.take(10)))?.let { oldIndex ->
+                    if (mSpiderDen.copyFromUniFileToDownloadDir(oldDir, oldIndex, index)) {
+                        return updatePageState(index, STATE_FINISHED)
                     }
                 }
-
-                // The lock for delay should be acquired before anything else to maintain FIFO order
-                delay(mDownloadDelay - lastRequestTime.elapsedNow())
-                lastRequestTime = TimeSource.Monotonic.markNow()
             }
+
+            if (isDownloadMode) mPTokenResolver.prefetchAhead(index)
+
+            awaitDownloadDelay()
             updatePageState(index, STATE_DOWNLOADING)
 
             var skipHathKey: String? = null
             var originImageUrl: String? = null
             var error: String? = null
             var forceHtml = false
+            var fromMultiPageViewer = false
             runSuspendCatching {
                 repeat(2) { retries ->
                     var imageUrl: String? = null
-                    var localShowKey: String?
+                    var localShowKey: String? = null
+
+                    // Batch resolved through MPV, and retried there if it was
+                    if (!skipHath) {
+                        when {
+                            retries == 0 -> mImageUrlResolver.take(index)
+                            fromMultiPageViewer -> mImageUrlResolver.skipHath(index, skipHathKey)
+                            else -> null
+                        }?.let {
+                            check509(it.imageUrl)
+                            imageUrl = it.imageUrl
+                            skipHathKey = it.skipHathKey
+                            originImageUrl = it.originImageUrl
+                            fromMultiPageViewer = true
+                        }
+                    }
 
-                    showKeyLock.withLock {
+                    if (imageUrl == null) showKeyLock.withLock {
                         localShowKey = showKey
                         if (localShowKey == null || forceHtml) {
                             var pageUrl = EhUrl.getPageUrl(mSpiderInfo.gid, index, pToken)
@@ -785,6 +1021,9 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
         const val STATE_FAILED = 3
         const val SPIDER_INFO_FILENAME = ".ehviewer"
         const val GET_FULL_HASH = true
+
+        // Milliseconds between two snapshots of download progress
+        const val PROGRESS_INTERVAL = 100L
         private val sQueenMap = LongSparseArray<SpiderQueen>()
         private val PTOKEN_FAILED_MESSAGE = GetText.getString(R.string.error_get_ptoken_error)
         private val ERROR_TIMEOUT = GetText.getString(R.string.error_timeout)
@@ -792,6 +1031,14 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
         private val URL_509_PATTERN = Regex("\\.org/.+/509s?\\.gif")
         private const val FORCE_RETRY = "Force retry"
         private const val WORKER_DEBUG_TAG = "SpiderQueenWorker"
+        private const val PREVIEW_FETCH_CONCURRENCY = 3
+        private const val PTOKEN_PREFETCH_WINDOW = 40
+        private const val MPV_DISPATCH_CONCURRENCY = 4
+        private const val MPV_DISPATCH_WINDOW = 10
+        private val MPV_IMAGE_URL_EXPIRE = 10.minutes
+
+        // Shared by all galleries, so that downloading several at once does not multiply API requests
+        private val sDispatchSemaphore = Semaphore(MPV_DISPATCH_CONCURRENCY)
 
         fun reset(gid: Long) {
             sQueenMap[gid]?.resetStates()
@@ -822,8 +1069,30 @@ class SpiderQueen private constructor(val galleryInfo: GalleryInfo) : CoroutineS
         }
 
         fun readPreviews(body: String, index: Int, spiderInfo: SpiderInfo) {
-            spiderInfo.previewPages = GalleryDetailParser.parsePreviewPages(body)
-            val previewSet = GalleryDetailParser.parsePreviewSet(body)
+            readPreviews(GalleryDetailParser.parsePreviewSet(body), GalleryDetailParser.parsePreviewPages(body), index, spiderInfo)
+        }
+
+        /**
+         * Keep page tokens of a preview page fetched elsewhere,
+         * in the spider info of the running queen or else the cached one.
+         */
+        suspend fun readPreviews(galleryInfo: GalleryInfo, previewSet: PreviewSet, previewPages: Int, index: Int) {
+            val queen = withUIContext { sQueenMap[galleryInfo.gid] }
+            if (queen != null) {
+                if (queen.isReady) {
+                    synchronized(queen.mSpiderInfo.pTokenMap) { readPreviews(previewSet, previewPages, index, queen.mSpiderInfo) }
+                }
+                return
+            }
+            val spiderInfo = readFromCache(galleryInfo.gid)?.takeIf { it.token == galleryInfo.token }
+                ?: SpiderInfo(galleryInfo.gid, galleryInfo.token, galleryInfo.pages).takeIf { it.pages > 0 }
+                ?: return
+            readPreviews(previewSet, previewPages, index, spiderInfo)
+            spiderInfo.saveToCache()
+        }
+
+        private fun readPreviews(previewSet: PreviewSet, previewPages: Int, index: Int, spiderInfo: SpiderInfo) {
+            spiderInfo.previewPages = previewPages
             if (previewSet.size() > 0) {
                 if (index == 0) {
                     spiderInfo.previewPerPage = previewSet.size()
@@ -29,6 +29,7 @@ import androidx.annotation.StyleRes
 import androidx.appcompat.app.AppCompatActivity
 import androidx.core.content.ContextCompat
 import com.hippo.ehviewer.EhApplication
+import com.hippo.ehviewer.EhDB
 import com.hippo.ehviewer.R
 import com.hippo.ehviewer.Settings
 import com.hippo.util.isAtLeastQ
@@ -70,6 +71,11 @@ abstract class EhActivity : AppCompatActivity() {
         (application as EhApplication).unregisterActivity(this)
     }
 
+    override fun onStop() {
+        super.onStop()
+        EhDB.flushHistory()
+    }
+
     override fun onResume() {
         super.onResume()
         if (Settings.enabledSecurity) {
@@ -40,6 +40,7 @@ import com.hippo.ehviewer.client.EhRequest
 import com.hippo.ehviewer.client.data.FavListUrlBuilder
 import com.hippo.ehviewer.client.parser.FavoritesParser
 import com.hippo.ehviewer.ui.scene.BaseScene
+import com.hippo.glgallery.DecodedPagePool
 import com.hippo.util.ExceptionUtils
 import com.hippo.util.LogCat
 import com.hippo.util.ReadableTime
@@ -154,6 +155,10 @@ class AdvancedFragment : BasePreferenceFragment() {
                             e.printStackTrace()
                         }
                     }
+                    out.putNextEntry(ZipEntry("stats.txt"))
+                    out.write("EhDB: ${EhDB.Stats}\n".toByteArray())
+                    out.write("$DecodedPagePool\n".toByteArray())
+                    out.closeEntry()
                     val entry =
                         ZipEntry("logcat-" + ReadableTime.getFilenamableTime() + ".txt")
                     out.putNextEntry(entry)
@@ -63,6 +63,7 @@ class DownloadFragment : BasePreferenceFragment() {
         mDownloadLocation = findPreference(Settings.KEY_DOWNLOAD_LOCATION)
         val mediaScan = findPreference<Preference>(Settings.KEY_MEDIA_SCAN)
         val multiThreadDownload = findPreference<Preference>(Settings.KEY_MULTI_THREAD_DOWNLOAD)
+        val galleryConcurrency = findPreference<Preference>(Settings.KEY_CONCURRENT_GALLERY_DOWNLOAD)
         val downloadDelay = findPreference<Preference>(Settings.KEY_DOWNLOAD_DELAY)
         val preloadImage = findPreference<Preference>(Settings.KEY_PRELOAD_IMAGE)
         val downloadOriginImage = findPreference<Preference>(Settings.KEY_DOWNLOAD_ORIGIN_IMAGE)
@@ -71,6 +72,9 @@ class DownloadFragment : BasePreferenceFragment() {
         multiThreadDownload!!.setSummaryProvider {
             getString(R.string.settings_download_concurrency_summary, (it as ListPreference).entry)
         }
+        galleryConcurrency!!.setSummaryProvider {
+            getString(R.string.settings_download_gallery_concurrency_summary, (it as ListPreference).entry)
+        }
         downloadDelay!!.setSummaryProvider {
             getString(R.string.settings_download_download_delay_summary, (it as ListPreference).entry)
         }
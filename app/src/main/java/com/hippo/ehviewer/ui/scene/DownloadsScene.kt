@@ -39,6 +39,7 @@ import androidx.core.view.GravityCompat
 import androidx.core.view.ViewCompat
 import androidx.drawerlayout.widget.DrawerLayout
 import androidx.lifecycle.lifecycleScope
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ItemTouchHelper
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
@@ -73,6 +74,7 @@ import com.hippo.unifile.UniFile
 import com.hippo.util.launchIO
 import com.hippo.util.launchNonCancellable
 import com.hippo.util.launchUI
+import com.hippo.util.withIOContext
 import com.hippo.view.ViewTransition
 import com.hippo.widget.FabLayout
 import com.hippo.widget.FabLayout.OnClickFabListener
@@ -84,6 +86,7 @@ import com.hippo.yorozuya.ObjectUtils
 import com.hippo.yorozuya.ViewUtils
 import com.hippo.yorozuya.collect.LongList
 import java.util.LinkedList
+import kotlinx.coroutines.Job
 import rikka.core.res.resolveColor
 
 @SuppressLint("RtlHardcoded")
@@ -109,6 +112,7 @@ class DownloadsScene :
     private var mSort = Settings.defaultSortingMethod
     private var mType = -1
     private var mInitPosition = -1
+    private var mUpdateJob: Job? = null
 
     override fun getNavCheckedItem(): Int = R.id.nav_downloads
 
@@ -132,20 +136,18 @@ class DownloadsScene :
         }
         val gid = args.getLong(KEY_GID, -1L)
         if (-1L != gid) {
-            DownloadManager.getDownloadInfo(gid)?.let {
-                mLabel = it.label
-                updateForLabel()
-                updateView()
-
-                // Get position
-                if (null != mList) {
-                    val position = mList!!.indexOf(it)
+            DownloadManager.getDownloadInfo(gid)?.let { info ->
+                mLabel = info.label
+                updateForLabel {
+                    // Get position
+                    val position = mList!!.indexOf(info)
                     if (position >= 0 && null != mRecyclerView) {
                         mRecyclerView!!.scrollToPosition(position)
                     } else {
                         mInitPosition = position
                     }
                 }
+                updateView()
                 return true
             }
         }
@@ -172,8 +174,11 @@ class DownloadsScene :
         DownloadManager.removeDownloadInfoListener(this)
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    private fun updateForLabel() {
+    /**
+     * Filter and sort downloads of [mLabel] in background, then dispatch the diff to the adapter.
+     * [onUpdated] is called once [mList] is updated.
+     */
+    private fun updateForLabel(onUpdated: (() -> Unit)? = null) {
         var list: MutableList<DownloadInfo>?
         if (mLabel == null) {
             list = DownloadManager.allDownloadInfoList
@@ -186,44 +191,44 @@ class DownloadsScene :
                 list = DownloadManager.allDownloadInfoList
             }
         }
+        updateTitle()
+        Settings.putRecentDownloadLabel(mLabel)
 
-        if (mType != -1) {
-            mList = ArrayList()
-            list.forEach {
-                if (mKeyword != null && EhUtils.getSuitableTitle(it).contains(mKeyword!!, true) || it.state == mType) {
-                    mList!!.add(it)
+        val target: MutableList<DownloadInfo> = list
+        val keyword = mKeyword
+        val type = mType
+        val sort = mSort
+        val source = target.toList()
+        val old = mList?.toList().orEmpty()
+        mUpdateJob?.cancel()
+        mUpdateJob = lifecycleScope.launchUI {
+            val (sorted, diff) = withIOContext {
+                val filtered = if (type != -1) {
+                    source.filter { keyword != null && it.titleKeys.title.contains(keyword, true) || it.state == type }
+                } else {
+                    source
                 }
+                val sorted = sortDownloads(filtered, sort)
+                sorted to DiffUtil.calculateDiff(DownloadDiffCallback(old, sorted))
             }
-        } else {
-            mList = list
-        }
-
-        if (mSort == 10) {
-            mList = ArrayList(mList!!.shuffled())
-        } else {
-            mList!!.sortWith { o1, o2 ->
-                val title1 = EhUtils.getSuitableTitle(o1)
-                val title2 = EhUtils.getSuitableTitle(o2)
-                when (mSort) {
-                    0 -> o2.time.compareTo(o1.time)
-                    1 -> o1.time.compareTo(o2.time)
-                    2 -> title1.compareTo(title2, true)
-                    3 -> title2.compareTo(title1, true)
-                    4 -> getAuthor(title1).compareTo(getAuthor(title2), true)
-                    5 -> getAuthor(title2).compareTo(getAuthor(title1), true)
-                    6 -> getName(title1).compareTo(getName(title2), true)
-                    7 -> getName(title2).compareTo(getName(title1), true)
-                    8 -> o1.category.compareTo(o2.category)
-                    9 -> o2.category.compareTo(o1.category)
-                    else -> 0
+            // Lists changed meanwhile, the diff is stale
+            if (!target.sameAs(source) || !mList.orEmpty().sameAs(old)) {
+                updateForLabel(onUpdated)
+                return@launchUI
+            }
+            mList = if (type == -1 && sort != SORT_SHUFFLE) {
+                // Keep the list of DownloadManager in the sorted order, as before
+                target.apply {
+                    clear()
+                    addAll(sorted)
                 }
+            } else {
+                ArrayList(sorted)
             }
+            mAdapter?.let { diff.dispatchUpdatesTo(it) }
+            updateView()
+            onUpdated?.invoke()
         }
-
-        mAdapter?.notifyDataSetChanged()
-
-        updateTitle()
-        Settings.putRecentDownloadLabel(mLabel)
     }
 
     private fun updateTitle() {
@@ -1314,20 +1319,36 @@ class DownloadsScene :
         const val KEY_GID = "gid"
         const val KEY_ACTION = "action"
         const val ACTION_CLEAR_DOWNLOAD_SERVICE = "clear_download_service"
-        private val PATTERN_AUTHOR = Regex("^(?:\\([^\\[\\]()]+\\))?\\s*\\[([^\\[\\]]+)]")
-        private val PATTERN_NAME = Regex("^(?:\\([^\\[\\]()]+\\))?\\s*(?:\\[[^\\[\\]]+])?\\s*(.+)")
         private const val KEY_LABEL = "label"
         private const val LABEL_OFFSET = 2
         private const val PAYLOAD_STATE = 0
-
-        private fun getAuthor(title: String): String {
-            val matcher = PATTERN_AUTHOR.find(title) ?: return ""
-            return matcher.groupValues[1].trim { it <= ' ' }
+        private const val SORT_SHUFFLE = 10
+
+        private fun sortDownloads(list: List<DownloadInfo>, sort: Int): List<DownloadInfo> = when (sort) {
+            0 -> list.sortedByDescending { it.time }
+            1 -> list.sortedBy { it.time }
+            2 -> list.sortedWith { o1, o2 -> o1.titleKeys.title.compareTo(o2.titleKeys.title, true) }
+            3 -> list.sortedWith { o1, o2 -> o2.titleKeys.title.compareTo(o1.titleKeys.title, true) }
+            4 -> list.sortedWith { o1, o2 -> o1.titleKeys.author.compareTo(o2.titleKeys.author, true) }
+            5 -> list.sortedWith { o1, o2 -> o2.titleKeys.author.compareTo(o1.titleKeys.author, true) }
+            6 -> list.sortedWith { o1, o2 -> o1.titleKeys.name.compareTo(o2.titleKeys.name, true) }
+            7 -> list.sortedWith { o1, o2 -> o2.titleKeys.name.compareTo(o1.titleKeys.name, true) }
+            8 -> list.sortedBy { it.category }
+            9 -> list.sortedByDescending { it.category }
+            SORT_SHUFFLE -> list.shuffled()
+            else -> list
         }
 
-        private fun getName(title: String): String {
-            val matcher = PATTERN_NAME.find(title) ?: return title
-            return matcher.groupValues[1].trim { it <= ' ' }
-        }
+        // Same items in the same order
+        private fun List<DownloadInfo>.sameAs(other: List<DownloadInfo>) = size == other.size && indices.all { this[it] === other[it] }
+    }
+
+    private class DownloadDiffCallback(private val old: List<DownloadInfo>, private val new: List<DownloadInfo>) : DiffUtil.Callback() {
+        override fun getOldListSize() = old.size
+        override fun getNewListSize() = new.size
+        override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int) = old[oldItemPosition].gid == new[newItemPosition].gid
+
+        // State changes are notified by DownloadManager
+        override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int) = old[oldItemPosition] === new[newItemPosition]
     }
 }
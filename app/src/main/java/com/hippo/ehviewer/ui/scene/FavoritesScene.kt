@@ -36,6 +36,8 @@ import androidx.core.view.GravityCompat
 import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsAnimationCompat
 import androidx.drawerlayout.widget.DrawerLayout
+import androidx.lifecycle.lifecycleScope
+import androidx.paging.PagingSource
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.datepicker.CalendarConstraints
@@ -66,7 +68,10 @@ import com.hippo.ehviewer.widget.GalleryInfoContentHelper
 import com.hippo.ehviewer.widget.SearchBar
 import com.hippo.scene.Announcer
 import com.hippo.util.getParcelableCompat
+import com.hippo.util.launchIO
+import com.hippo.util.runSuspendCatching
 import com.hippo.util.toEpochMillis
+import com.hippo.util.withUIContext
 import com.hippo.widget.ContentLayout
 import com.hippo.widget.FabLayout
 import com.hippo.widget.FabLayout.OnClickFabListener
@@ -779,24 +784,43 @@ class FavoritesScene :
         }
     }
 
-    private fun onGetFavoritesLocal(keyword: String?, taskId: Int) {
+    private fun onGetFavoritesLocal(keyword: String?, taskId: Int, page: Int = 0) {
         if (mHelper != null && mHelper!!.isCurrentTask(taskId)) {
-            val list: List<GalleryInfo> = if (keyword.isNullOrEmpty()) {
-                // DB Actions
-                EhDB.allLocalFavorites
-            } else {
-                // DB Actions
-                EhDB.searchLocalFavorites(keyword)
-            }
-            if (list.isEmpty()) {
-                mHelper!!.onGetPageData(taskId, 0, 0, null, null, list)
-            } else {
-                mHelper!!.onGetPageData(taskId, 1, 0, null, null, list)
+            viewLifecycleOwner.lifecycleScope.launchIO {
+                val result = runSuspendCatching { loadLocalFavorites(keyword, page) }
+                withUIContext {
+                    if (mHelper == null || !mHelper!!.isCurrentTask(taskId)) return@withUIContext
+                    result.onSuccess { (list, count) ->
+                        val pages = (count + LOCAL_PAGE_SIZE - 1) / LOCAL_PAGE_SIZE
+                        mHelper!!.onGetPageData(taskId, pages, 0, null, null, list)
+                        if (TextUtils.isEmpty(keyword)) {
+                            mFavLocalCount = count
+                            Settings.putFavLocalCount(mFavLocalCount)
+                            mDrawerAdapter?.notifyDataSetChanged()
+                        }
+                    }.onFailure {
+                        mHelper!!.onGetException(taskId, it as? Exception ?: Exception(it))
+                    }
+                }
             }
-            if (TextUtils.isEmpty(keyword)) {
-                mFavLocalCount = list.size
-                Settings.putFavLocalCount(mFavLocalCount)
-                mDrawerAdapter?.notifyDataSetChanged()
+        }
+    }
+
+    /**
+     * @return favorites of [page] and the count of all matches
+     */
+    private suspend fun loadLocalFavorites(keyword: String?, page: Int): Pair<List<GalleryInfo>, Int> {
+        while (true) {
+            // DB Actions
+            val params = PagingSource.LoadParams.Append(page * LOCAL_PAGE_SIZE, LOCAL_PAGE_SIZE, false)
+            when (val result = EhDB.localFavoritesLazyList(keyword).load(params)) {
+                is PagingSource.LoadResult.Page -> {
+                    val after = result.itemsAfter.takeIf { it != PagingSource.LoadResult.Page.COUNT_UNDEFINED } ?: 0
+                    return result.data to result.itemsBefore.coerceAtLeast(0) + result.data.size + after
+                }
+                is PagingSource.LoadResult.Error -> throw result.throwable
+                // Changed while loading, load again
+                is PagingSource.LoadResult.Invalid -> continue
             }
         }
     }
@@ -1097,7 +1121,7 @@ class FavoritesScene :
                 }
             } else if (mUrlBuilder!!.favCat == FavListUrlBuilder.FAV_CAT_LOCAL) {
                 val keyword = mUrlBuilder!!.keyword
-                SimpleHandler.getInstance().post { onGetFavoritesLocal(keyword, taskId) }
+                onGetFavoritesLocal(keyword, taskId, page)
             } else {
                 mUrlBuilder!!.setIndex(index, isNext)
                 mUrlBuilder!!.jumpTo = jumpTo
@@ -1151,5 +1175,6 @@ class FavoritesScene :
         private const val KEY_SEARCH_MODE = "search_mode"
         private const val KEY_HAS_FIRST_REFRESH = "has_first_refresh"
         private const val KEY_FAV_COUNT_ARRAY = "fav_count_array"
+        private const val LOCAL_PAGE_SIZE = 50
     }
 }
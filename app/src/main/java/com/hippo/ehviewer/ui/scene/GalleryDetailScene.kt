@@ -84,6 +84,7 @@ import com.hippo.ehviewer.client.EhTagDatabase.isTranslatable
 import com.hippo.ehviewer.client.EhTagDatabase.namespaceToPrefix
 import com.hippo.ehviewer.client.EhUrl
 import com.hippo.ehviewer.client.EhUtils
+import com.hippo.ehviewer.client.GalleryDetailDiskCache
 import com.hippo.ehviewer.client.data.GalleryComment
 import com.hippo.ehviewer.client.data.GalleryCommentList
 import com.hippo.ehviewer.client.data.GalleryDetail
@@ -643,8 +644,21 @@ class GalleryDetailScene :
         return if (application.containGlobalStuff(mRequestId)) {
             // request exist
             true
+        } else if (galleryDetailUrl == null) {
+            false
         } else {
-            request()
+            // Show the copy on disk at once, refresh it if it is stale
+            lifecycleScope.launchIO {
+                val cached = GalleryDetailDiskCache.read(gid)
+                withUIContext {
+                    if (cached != null && mGalleryDetail == null) {
+                        galleryDetailCache.put(gid, cached.detail)
+                        onGetGalleryDetailSuccess(cached.detail)
+                    }
+                    if (cached?.isStale != false) request()
+                }
+            }
+            true
         }
     }
 
@@ -785,10 +799,10 @@ class GalleryDetailScene :
         }
     }
 
-    private fun bindViewSecond() {
+    private fun bindViewSecond(showReadFrom: Boolean = true) {
         context ?: return
         val gd = mGalleryDetail ?: return
-        if (mPage != 0) {
+        if (showReadFrom && mPage != 0) {
             Snackbar.make(
                 requireActivity().findViewById(R.id.snackbar),
                 getString(R.string.read_from, mPage + 1),
@@ -1538,6 +1552,7 @@ class GalleryDetailScene :
                 return
             }
             mGalleryDetail!!.comments = comments
+            updateDiskCache()
             bindComments(comments!!.comments)
         } else {
             super.onSceneResult(requestCode, resultCode, data)
@@ -1606,15 +1621,18 @@ class GalleryDetailScene :
     override fun onUpdateLabels() {}
 
     private fun onGetGalleryDetailSuccess(result: GalleryDetail) {
+        // Detail from disk cache is shown already if it is a refresh
+        val refresh = mGalleryDetail != null
         mGalleryDetail = result
         updateDownloadState()
         adjustViewVisibility(STATE_NORMAL, true)
-        bindViewSecond()
+        bindViewSecond(!refresh)
     }
 
     private fun onGetGalleryDetailFailure(e: Exception) {
         e.printStackTrace()
-        if (null != mTip) {
+        // Keep showing detail from disk cache if refresh failed
+        if (null != mTip && mGalleryDetail == null) {
             val error = ExceptionUtils.getReadableString(e)
             mTip!!.text = error
             adjustViewVisibility(STATE_FAILED, true)
@@ -1625,6 +1643,7 @@ class GalleryDetailScene :
         if (mGalleryDetail != null) {
             mGalleryDetail!!.rating = result.rating
             mGalleryDetail!!.ratingCount = result.ratingCount
+            updateDiskCache()
         }
         // Update UI
         if (mRatingText != null && mRating != null) {
@@ -1637,10 +1656,17 @@ class GalleryDetailScene :
         mModifyingFavorites = false
         if (mGalleryDetail != null) {
             mGalleryDetail!!.isFavorited = !addOrRemove && mGalleryDetail!!.favoriteName != null
+            updateDiskCache()
             updateFavoriteDrawable()
         }
     }
 
+    // Keep the copy on disk in step with changes made here
+    private fun updateDiskCache() {
+        val gd = mGalleryDetail ?: return
+        launchIO { GalleryDetailDiskCache.update(gd) }
+    }
+
     private fun onModifyFavoritesFailure() {
         mModifyingFavorites = false
     }
@@ -1698,6 +1724,7 @@ class GalleryDetailScene :
                 showTip(result.first, LENGTH_SHORT)
             } else {
                 mGalleryDetail?.tags = result.second
+                updateDiskCache()
                 bindTags(result.second)
                 showTip(R.string.tag_vote_successfully, LENGTH_SHORT)
             }
@@ -1788,6 +1815,7 @@ class GalleryDetailScene :
             application.removeGlobalStuff(this)
             // Put gallery detail to cache
             galleryDetailCache.put(result.gid, result)
+            launchIO { GalleryDetailDiskCache.write(result) }
             // Add history
             // DB Actions
             EhDB.putHistoryInfo(result)
@@ -34,7 +34,6 @@ import com.hippo.ehviewer.R
 import com.hippo.ehviewer.Settings
 import com.hippo.ehviewer.client.EhClient
 import com.hippo.ehviewer.client.EhRequest
-import com.hippo.ehviewer.client.EhUrl
 import com.hippo.ehviewer.client.data.GalleryDetail
 import com.hippo.ehviewer.client.data.GalleryInfo
 import com.hippo.ehviewer.client.data.GalleryPreview
@@ -279,14 +278,12 @@ class GalleryPreviewsScene : ToolbarScene() {
                 onGetException(taskId, EhException(getString(R.string.error_cannot_find_gallery)))
                 return
             }
-            val url =
-                EhUrl.getGalleryDetailUrl(mGalleryInfo!!.gid, mGalleryInfo!!.token, page, false)
             val request = EhRequest()
             request.setMethod(EhClient.METHOD_GET_PREVIEW_SET)
             request.setCallback(
                 GetPreviewSetListener(context, taskId),
             )
-            request.setArgs(url)
+            request.setArgs(mGalleryInfo, page)
             request.enqueue(this@GalleryPreviewsScene)
         }
 
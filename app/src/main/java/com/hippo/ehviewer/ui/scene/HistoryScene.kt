@@ -142,6 +142,8 @@ class HistoryScene : ToolbarScene() {
         val drawable = ContextCompat.getDrawable(requireContext(), R.drawable.big_history)
         drawable!!.setBounds(0, 0, drawable.intrinsicWidth, drawable.intrinsicHeight)
         mTip.setCompoundDrawables(null, drawable, null, null)
+        // Show visits not written yet
+        EhDB.flushHistory()
         val historyData = Pager(
             PagingConfig(20),
         ) {
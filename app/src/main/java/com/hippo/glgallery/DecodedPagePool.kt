@@ -0,0 +1,89 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.glgallery
+
+import android.content.ComponentCallbacks2
+import androidx.collection.lruCache
+import com.hippo.glview.image.ImageWrapper
+import com.hippo.util.isAtLeastO
+import com.hippo.yorozuya.OSUtils
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Decoded pages of all galleries, keyed by gallery and page index.
+ * It outlives [GalleryProvider] so that a reopened gallery gets decoded pages back at once.
+ */
+object DecodedPagePool {
+    private const val MAX_CACHE_SIZE = 512 * 1024 * 1024
+    private const val MIN_CACHE_SIZE = 256 * 1024 * 1024
+
+    private val mCache = lruCache<Pair<String, Int>, ImageWrapper>(
+        maxSize = if (isAtLeastO) {
+            (OSUtils.getTotalMemory() / 12).toInt().coerceIn(MIN_CACHE_SIZE, MAX_CACHE_SIZE)
+        } else {
+            (OSUtils.getAppMaxMemory() / 3 * 2).toInt()
+        },
+        sizeOf = { _, v -> v.byteCount },
+        onEntryRemoved = { _, _, o, _ -> o.release() },
+    )
+
+    private val mHitCount = AtomicInteger()
+    private val mMissCount = AtomicInteger()
+
+    /**
+     * Get the page for display, counted in [hitRate].
+     */
+    operator fun get(owner: String, index: Int): ImageWrapper? = mCache[owner to index].also {
+        (if (it != null) mHitCount else mMissCount).incrementAndGet()
+    }
+
+    /**
+     * Get the page without counting in [hitRate], for preload checks.
+     */
+    fun peek(owner: String, index: Int): ImageWrapper? = mCache[owner to index]
+
+    /**
+     * The pool takes a reference of [image], it is released on eviction.
+     */
+    fun put(owner: String, index: Int, image: ImageWrapper) {
+        if (image.obtain()) mCache.put(owner to index, image)
+    }
+
+    fun remove(owner: String, index: Int) {
+        mCache.remove(owner to index)
+    }
+
+    fun trimMemory(level: Int) {
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> mCache.evictAll()
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> mCache.trimToSize(mCache.maxSize() / 2)
+        }
+    }
+
+    val byteCount: Int
+        get() = mCache.size()
+
+    val hitRate: Float
+        get() {
+            val hit = mHitCount.get()
+            val total = hit + mMissCount.get()
+            return if (total == 0) 0f else hit.toFloat() / total
+        }
+
+    override fun toString(): String = "DecodedPagePool(bytes=$byteCount, max=${mCache.maxSize()}, hitRate=$hitRate)"
+}
@@ -17,29 +17,17 @@ package com.hippo.glgallery
 
 import androidx.annotation.CallSuper
 import androidx.annotation.IntDef
-import androidx.collection.lruCache
 import com.hippo.ehviewer.Settings
 import com.hippo.glview.glrenderer.GLCanvas
 import com.hippo.glview.image.ImageWrapper
 import com.hippo.glview.view.GLRoot
 import com.hippo.glview.view.GLRoot.OnGLIdleListener
 import com.hippo.image.Image
-import com.hippo.util.isAtLeastO
 import com.hippo.yorozuya.ConcurrentPool
 import com.hippo.yorozuya.MathUtils
-import com.hippo.yorozuya.OSUtils
 
 abstract class GalleryProvider {
     private val mNotifyTaskPool = ConcurrentPool<NotifyTask>(5)
-    private val mImageCache = lruCache<Int, ImageWrapper>(
-        maxSize = if (isAtLeastO) {
-            (OSUtils.getTotalMemory() / 12).toInt().coerceIn(MIN_CACHE_SIZE, MAX_CACHE_SIZE)
-        } else {
-            (OSUtils.getAppMaxMemory() / 3 * 2).toInt()
-        },
-        sizeOf = { _, v -> v.width * v.height * if (v.animated) 20 else 4 },
-        onEntryRemoved = { _, _, o, _ -> o.release() },
-    )
     private val mPreloads = MathUtils.clamp(Settings.preloadImage, 0, 100)
 
     @Volatile
@@ -52,11 +40,16 @@ abstract class GalleryProvider {
 
     abstract val isReady: Boolean
 
+    /**
+     * Identifies the gallery in [DecodedPagePool].
+     */
+    protected abstract val poolKey: String
+
     abstract fun start()
 
     @CallSuper
     open fun stop() {
-        mImageCache.evictAll()
+        // Decoded pages stay in the pool for the next reader
     }
 
     fun setGLRoot(glRoot: GLRoot) {
@@ -68,7 +61,7 @@ abstract class GalleryProvider {
     private var lastRequestIndex = -1
 
     fun request(index: Int) {
-        mImageCache[index]?.let {
+        DecodedPagePool[poolKey, index]?.let {
             notifyPageSucceed(index, it)
         } ?: onRequest(index)
 
@@ -80,7 +73,7 @@ abstract class GalleryProvider {
         val start = if (preloadRange.step > 0) preloadRange.first else preloadRange.last
         val end = if (preloadRange.step > 0) preloadRange.last else preloadRange.first
         preloadPages(
-            preloadRange.filter { mImageCache[it] == null },
+            preloadRange.filter { DecodedPagePool.peek(poolKey, it) == null },
             start - 8 to end + 8,
         )
 
@@ -92,7 +85,7 @@ abstract class GalleryProvider {
     }
 
     fun removeCache(index: Int) {
-        mImageCache.remove(index)
+        DecodedPagePool.remove(poolKey, index)
     }
 
     protected abstract fun preloadPages(pages: List<Int>, pair: Pair<Int, Int>)
@@ -125,7 +118,7 @@ abstract class GalleryProvider {
 
     fun notifyPageSucceed(index: Int, image: Image) {
         val imageWrapper = ImageWrapper(image)
-        if (imageWrapper.obtain()) mImageCache.put(index, imageWrapper)
+        DecodedPagePool.put(poolKey, index, imageWrapper)
         notifyPageSucceed(index, imageWrapper)
     }
 
@@ -218,9 +211,4 @@ abstract class GalleryProvider {
             const val TYPE_FAILED = 4
         }
     }
-
-    companion object {
-        private const val MAX_CACHE_SIZE = 512 * 1024 * 1024
-        private const val MIN_CACHE_SIZE = 256 * 1024 * 1024
-    }
 }
@@ -24,6 +24,7 @@ import com.hippo.glview.glrenderer.GLCanvas;
 import com.hippo.glview.glrenderer.Texture;
 import com.hippo.glview.image.ImageTexture;
 import com.hippo.glview.view.GLView;
+import com.hippo.image.ImageRegion;
 import com.hippo.yorozuya.AnimationUtils;
 import com.hippo.yorozuya.MathUtils;
 
@@ -50,6 +51,7 @@ class ImageView extends GLView implements ImageTexture.Callback {
     private final Rect mValidRect = new Rect();
     private final AlphaAnimation mAlphaAnimation;
     private ImageTexture mImageTexture;
+    private RegionTileLayer mRegionTileLayer;
     private int mTextureWidth;
     private int mTextureHeight;
     private int mScaleMode = SCALE_FIT;
@@ -165,6 +167,11 @@ class ImageView extends GLView implements ImageTexture.Callback {
             mImageTexture.stop();
         }
 
+        if (mRegionTileLayer != null) {
+            mRegionTileLayer.release();
+            mRegionTileLayer = null;
+        }
+
         int oldTextureWidth = mTextureWidth;
         int oldTextureHeight = mTextureHeight;
 
@@ -172,6 +179,10 @@ class ImageView extends GLView implements ImageTexture.Callback {
 
         if (imageTexture != null) {
             imageTexture.setCallback(this);
+            ImageRegion region = imageTexture.getRegion();
+            if (region != null) {
+                mRegionTileLayer = new RegionTileLayer(region, this);
+            }
             mTextureWidth = imageTexture.getWidth();
             mTextureHeight = imageTexture.getHeight();
             // Avoid zero and negative
@@ -537,6 +548,9 @@ class ImageView extends GLView implements ImageTexture.Callback {
 
         if (!mSrcActual.isEmpty()) {
             texture.draw(canvas, mSrcActual, mDstActual);
+            if (mRegionTileLayer != null) {
+                mRegionTileLayer.draw(canvas, mSrcActual, mDstActual);
+            }
         }
     }
 
@@ -544,4 +558,9 @@ class ImageView extends GLView implements ImageTexture.Callback {
     public void invalidateImageTexture(ImageTexture who) {
         invalidate();
     }
+
+    @Override
+    public int getUploadDistance() {
+        return getDistanceToViewport();
+    }
 }
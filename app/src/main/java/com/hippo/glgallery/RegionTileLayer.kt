@@ -0,0 +1,164 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.glgallery
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.graphics.RectF
+import androidx.collection.lruCache
+import com.hippo.glview.glrenderer.GLCanvas
+import com.hippo.glview.image.ImageTexture
+import com.hippo.glview.image.ImageWrapper
+import com.hippo.glview.view.GLView
+import com.hippo.image.Image
+import com.hippo.image.ImageRegion
+import com.hippo.util.launchIO
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.Job
+
+/**
+ * Sharper tiles drawn over a page decoded by region, when it is zoomed in beyond its base.
+ * Levels are power of two sample sizes below [ImageRegion.sampleSize], down to full resolution.
+ * Everything but decoding happens on GL thread.
+ */
+@OptIn(DelicateCoroutinesApi::class)
+internal class RegionTileLayer(private val region: ImageRegion, private val view: GLView) {
+    private val mTiles = lruCache<Long, ImageTexture>(
+        maxSize = MAX_TILES,
+        onEntryRemoved = { _, _, o, _ -> o.recycle() },
+    )
+    private val mPending = HashMap<Long, Job>()
+    private val mDecoded = ConcurrentLinkedQueue<Pair<Long, Bitmap?>>()
+    private val mVisible = HashSet<Long>()
+    private val mTileRect = Rect()
+    private val mSrc = RectF()
+    private val mDst = RectF()
+
+    @Volatile
+    private var mReleased = false
+
+    /**
+     * @param source visible region of base image
+     * @param target where [source] is drawn
+     */
+    fun draw(canvas: GLCanvas, source: RectF, target: RectF) {
+        takeDecoded()
+        val baseSample = region.sampleSize
+        val scale = target.width() / source.width()
+        // Screen pixels per full resolution pixel
+        val density = scale / baseSample
+        var level = baseSample
+        while (level > 1 && density * level > 1f) level /= 2
+        mVisible.clear()
+        if (level == baseSample) {
+            cancelInvisible()
+            return
+        }
+
+        val tileSize = TILE_SIZE * level
+        val left = (source.left * baseSample).toInt().coerceAtLeast(0)
+        val top = (source.top * baseSample).toInt().coerceAtLeast(0)
+        val right = (source.right * baseSample).toInt().coerceAtMost(region.width)
+        val bottom = (source.bottom * baseSample).toInt().coerceAtMost(region.height)
+        for (ty in top / tileSize..(bottom - 1) / tileSize) {
+            for (tx in left / tileSize..(right - 1) / tileSize) {
+                val key = key(level, tx, ty)
+                mVisible += key
+                val rect = mTileRect.apply {
+                    set(tx * tileSize, ty * tileSize, ((tx + 1) * tileSize).coerceAtMost(region.width), ((ty + 1) * tileSize).coerceAtMost(region.height))
+                }
+                val texture = mTiles[key]
+                if (texture == null) {
+                    request(key, rect, level)
+                    continue
+                }
+                // Only draw what is visible, in full resolution then in tile and screen
+                mSrc.set(rect.left.toFloat(), rect.top.toFloat(), rect.right.toFloat(), rect.bottom.toFloat())
+                if (!mSrc.intersect(left.toFloat(), top.toFloat(), right.toFloat(), bottom.toFloat())) continue
+                mDst.set(
+                    target.left + (mSrc.left / baseSample - source.left) * scale,
+                    target.top + (mSrc.top / baseSample - source.top) * scale,
+                    target.left + (mSrc.right / baseSample - source.left) * scale,
+                    target.top + (mSrc.bottom / baseSample - source.top) * scale,
+                )
+                mSrc.offset(-rect.left.toFloat(), -rect.top.toFloat())
+                mSrc.set(mSrc.left / level, mSrc.top / level, mSrc.right / level, mSrc.bottom / level)
+                texture.draw(canvas, mSrc, mDst)
+            }
+        }
+        cancelInvisible()
+    }
+
+    private fun request(key: Long, rect: Rect, level: Int) {
+        if (key in mPending) return
+        val regionRect = Rect(rect)
+        mPending[key] = launchIO {
+            val bitmap = region.decode(regionRect, level)
+            if (mReleased) {
+                bitmap?.recycle()
+            } else {
+                mDecoded += key to bitmap
+                view.invalidate()
+            }
+        }
+    }
+
+    private fun takeDecoded() {
+        while (true) {
+            val (key, bitmap) = mDecoded.poll() ?: break
+            mPending.remove(key)
+            bitmap ?: continue
+            val image = ImageWrapper(Image.create(bitmap))
+            if (image.obtain()) mTiles.put(key, ImageTexture(image))
+        }
+    }
+
+    // Tiles of other levels or scrolled away are not needed any more
+    private fun cancelInvisible() {
+        val iterator = mPending.iterator()
+        while (iterator.hasNext()) {
+            val (key, job) = iterator.next()
+            if (key !in mVisible) {
+                job.cancel()
+                iterator.remove()
+            }
+        }
+    }
+
+    fun release() {
+        mReleased = true
+        mPending.values.forEach { it.cancel() }
+        mPending.clear()
+        while (true) {
+            val (_, bitmap) = mDecoded.poll() ?: break
+            bitmap?.recycle()
+        }
+        mTiles.evictAll()
+    }
+
+    companion object {
+        // Tiles are decoded and uploaded in this size, fits in a large tile of ImageTexture
+        private const val TILE_SIZE = 508
+
+        // Enough to cover a screen twice, each tile takes about 1MB
+        private const val MAX_TILES = 24
+
+        private fun key(level: Int, x: Int, y: Int) = (level.toLong() shl 48) or (x.toLong() shl 24) or y.toLong()
+    }
+}
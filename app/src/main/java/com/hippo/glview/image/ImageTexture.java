@@ -16,6 +16,7 @@
 
 package com.hippo.glview.image;
 
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Animatable;
 import android.os.Process;
@@ -28,13 +29,13 @@ import com.hippo.glview.glrenderer.GLCanvas;
 import com.hippo.glview.glrenderer.NativeTexture;
 import com.hippo.glview.glrenderer.Texture;
 import com.hippo.glview.view.GLRoot;
+import com.hippo.image.ImageRegion;
 import com.hippo.yorozuya.thread.InfiniteThreadExecutor;
 import com.hippo.yorozuya.thread.PriorityThreadFactory;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.concurrent.Executor;
@@ -51,8 +52,10 @@ public class ImageTexture implements Texture, Animatable {
     private static final int LARGE_TILE_SIZE = LARGE_CONTENT_SIZE + 2 * LARGE_BORDER_SIZE;
     private static final int INIT_CAPACITY = 8;
     // We are targeting at 60fps, so we have 16ms for each frame.
-    // In this 16ms, we use about 4~8 ms to upload tiles.
-    private static final long UPLOAD_TILE_LIMIT = 4; // ms
+    // Tiles take what rendering leaves, between 2 and 8 ms.
+    private static final long FRAME_TIME = 16; // ms
+    private static final long MIN_UPLOAD_TIME = 2; // ms
+    private static final long MAX_UPLOAD_TIME = 8; // ms
     private static final Executor sThreadExecutor;
     private static final Object sFreeTileLock = new Object();
     private static Tile sSmallFreeTileHead = null;
@@ -71,6 +74,7 @@ public class ImageTexture implements Texture, Animatable {
     private final boolean mOpaque;
     private final RectF mSrcRect = new RectF();
     private final RectF mDestRect = new RectF();
+    private final Rect mDirtyRect = new Rect();
     private final AtomicBoolean mRunning = new AtomicBoolean();
     private final AtomicBoolean mRequestAnimation = new AtomicBoolean();
     private final AtomicBoolean mFrameDirty = new AtomicBoolean();
@@ -207,6 +211,18 @@ public class ImageTexture implements Texture, Animatable {
         mCallback = new WeakReference<>(cb);
     }
 
+    /**
+     * @see ImageWrapper#getRegion()
+     */
+    public ImageRegion getRegion() {
+        return mImage.getRegion();
+    }
+
+    private int getUploadDistance() {
+        Callback callback = getCallback();
+        return callback != null ? callback.getUploadDistance() : Integer.MAX_VALUE;
+    }
+
     public void invalidateSelf() {
         final Callback callback = getCallback();
         if (callback != null) {
@@ -291,12 +307,11 @@ public class ImageTexture implements Texture, Animatable {
     }
 
     private void syncFrame() {
-        if (mFrameDirty.getAndSet(false)) {
-            // invalid tiles
+        if (mFrameDirty.getAndSet(false) && mImage.updateFrame(mDirtyRect)) {
+            // invalid tiles the new frame touches
             for (Tile tile : mTiles) {
-                tile.invalidateContent();
+                if (tile.intersects(mDirtyRect)) tile.invalidateContent();
             }
-            mImage.setFrameUpdateAllowed(true);
         }
     }
 
@@ -437,11 +452,16 @@ public class ImageTexture implements Texture, Animatable {
 
     public interface Callback {
         void invalidateImageTexture(ImageTexture who);
+
+        /**
+         * @return distance to viewport in pixels, 0 if visible
+         */
+        int getUploadDistance();
     }
 
     public static class Uploader implements GLRoot.OnGLIdleListener {
-        private final ArrayDeque<ImageTexture> mTextures =
-                new ArrayDeque<>(INIT_CAPACITY);
+        private final ArrayList<ImageTexture> mTextures =
+                new ArrayList<>(INIT_CAPACITY);
 
         private final GLRoot mGlRoot;
         private boolean mIsQueued = false;
@@ -456,23 +476,46 @@ public class ImageTexture implements Texture, Animatable {
 
         public synchronized void addTexture(ImageTexture t) {
             if (t.isReady()) return;
-            mTextures.addLast(t);
+            mTextures.add(t);
 
             if (mIsQueued) return;
             mIsQueued = true;
             mGlRoot.addOnGLIdleListener(this);
         }
 
+        // The texture nearest to viewport, pages on screen come first
+        private ImageTexture nextTexture() {
+            ImageTexture next = null;
+            int minDistance = Integer.MAX_VALUE;
+            for (int i = 0, n = mTextures.size(); i < n; i++) {
+                ImageTexture t = mTextures.get(i);
+                int distance = t.getUploadDistance();
+                if (next == null || distance < minDistance) {
+                    next = t;
+                    minDistance = distance;
+                }
+            }
+            return next;
+        }
+
+        private long getUploadTime(boolean renderRequested) {
+            // No frame is waiting, use all we can
+            if (!renderRequested) return MAX_UPLOAD_TIME;
+            long renderTime = mGlRoot.getFrameRenderTime() / 1000000;
+            return Math.max(MIN_UPLOAD_TIME, Math.min(MAX_UPLOAD_TIME, FRAME_TIME - renderTime));
+        }
+
         @Override
         public boolean onGLIdle(GLCanvas canvas, boolean renderRequested) {
-            ArrayDeque<ImageTexture> deque = mTextures;
+            ArrayList<ImageTexture> textures = mTextures;
             synchronized (this) {
                 long now = SystemClock.uptimeMillis();
-                long dueTime = now + UPLOAD_TILE_LIMIT;
-                while (now < dueTime && !deque.isEmpty()) {
-                    ImageTexture t = deque.peekFirst();
-                    if (t != null && t.uploadNextTile(canvas)) {
-                        deque.removeFirst();
+                long dueTime = now + getUploadTime(renderRequested);
+                while (now < dueTime && !textures.isEmpty()) {
+                    // Pick again for each tile, so scrolling takes effect at once
+                    ImageTexture t = nextTexture();
+                    if (t.uploadNextTile(canvas)) {
+                        textures.remove(t);
                         mGlRoot.requestRender();
                     }
                     now = SystemClock.uptimeMillis();
@@ -553,6 +596,12 @@ public class ImageTexture implements Texture, Animatable {
             image = null;
         }
 
+        // Borders are uploaded too, so count them in
+        private boolean intersects(Rect rect) {
+            return rect.left < offsetX + contentWidth + borderSize && offsetX - borderSize < rect.right
+                    && rect.top < offsetY + contentHeight + borderSize && offsetY - borderSize < rect.bottom;
+        }
+
         public void free() {
             switch (mTileType) {
                 case TILE_SMALL:
@@ -22,6 +22,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.hippo.image.Image;
+import com.hippo.image.ImageRegion;
 
 /**
  * A wrapper for {@link Image}. It is useful for multi-usage.
@@ -121,10 +122,13 @@ public class ImageWrapper {
     }
 
     /**
-     * @see Image#setFrameUpdateAllowed(boolean)
+     * @see Image#updateFrame(Rect)
+     * @param dirty receives the changed region relative to the cut
      */
-    public void setFrameUpdateAllowed(boolean allowed) {
-        mImage.setFrameUpdateAllowed(allowed);
+    public boolean updateFrame(Rect dirty) {
+        if (!mImage.updateFrame(dirty)) return false;
+        dirty.offset(-mCut.left, -mCut.top);
+        return dirty.intersect(0, 0, getWidth(), getHeight());
     }
 
     /**
@@ -134,6 +138,19 @@ public class ImageWrapper {
         mImage.texImage(init, offsetX + mCut.left, offsetY + mCut.top, width, height);
     }
 
+    /**
+     * @see Image#getRegion()
+     * @return null if the image is not decoded by region or is cut
+     */
+    public ImageRegion getRegion() {
+        ImageRegion region = mImage.getRegion();
+        if (region == null || mCut.left != 0 || mCut.top != 0
+                || mCut.right != mImage.getWidth() || mCut.bottom != mImage.getHeight()) {
+            return null;
+        }
+        return region;
+    }
+
     /**
      * @see Image#start()
      */
@@ -141,6 +158,13 @@ public class ImageWrapper {
         mImage.start();
     }
 
+    /**
+     * @see Image#getByteCount()
+     */
+    public int getByteCount() {
+        return mImage.getByteCount();
+    }
+
     /**
      * @see Image#getDelay()
      */
@@ -59,6 +59,11 @@ public interface GLRoot {
 
     int getHeight();
 
+    /**
+     * @return time spent rendering last frame in nanoseconds
+     */
+    long getFrameRenderTime();
+
     // Listener will be called when GL is idle AND before each frame.
     // Mainly used for uploading textures.
     interface OnGLIdleListener {
@@ -96,6 +96,7 @@ public class GLRootView extends GLSurfaceView
     private int mDisplayRotation;
     private int mFlags = FLAG_NEED_LAYOUT;
     private volatile boolean mRenderRequested = false;
+    private volatile long mFrameRenderTime = 0;
     private boolean mFreeze;
     private boolean mInDownState = false;
     private int mEGLContextClientVersion;
@@ -554,6 +555,7 @@ public class GLRootView extends GLSurfaceView
             }
 
             long t = System.nanoTime();
+            mFrameRenderTime = t - t0;
             long duration = (t - t0) / 1000000;
 
             if (duration > 100) {
@@ -1032,6 +1032,29 @@ public class GLView implements TouchOwner {
         return new LayoutParams(p);
     }
 
+    /**
+     * Gets the distance in pixels between this view and the visible area of root,
+     * 0 if they intersect, {@link Integer#MAX_VALUE} if it is not shown.
+     */
+    public int getDistanceToViewport() {
+        GLRoot root = mRoot;
+        if (root == null) return Integer.MAX_VALUE;
+        int x = 0;
+        int y = 0;
+        for (GLView view = this; view != null; view = view.mParent) {
+            if (view.getVisibility() != VISIBLE) return Integer.MAX_VALUE;
+            x += view.mBounds.left;
+            y += view.mBounds.top;
+            if (view.mParent != null) {
+                x -= view.mParent.mScrollX;
+                y -= view.mParent.mScrollY;
+            }
+        }
+        int dx = Math.max(0, Math.max(-(x + getWidth()), x - root.getWidth()));
+        int dy = Math.max(0, Math.max(-(y + getHeight()), y - root.getHeight()));
+        return dx + dy;
+    }
+
     /**
      * Gets the bounds of the given descendant that relative to this view.
      */
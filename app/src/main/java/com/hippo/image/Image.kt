@@ -21,7 +21,9 @@ import android.graphics.Bitmap
 import android.graphics.Canvas
 import android.graphics.Color
 import android.graphics.PorterDuff
+import android.graphics.Rect
 import android.graphics.drawable.Animatable
+import android.os.ParcelFileDescriptor
 import androidx.core.graphics.createBitmap
 import coil3.BitmapImage
 import coil3.DrawableImage
@@ -39,6 +41,7 @@ import com.hippo.ehviewer.EhApplication
 import com.hippo.ehviewer.jni.isGif
 import com.hippo.ehviewer.jni.mmap
 import com.hippo.ehviewer.jni.munmap
+import com.hippo.ehviewer.jni.nativeDiffFrame
 import com.hippo.ehviewer.jni.nativeTexImage
 import com.hippo.ehviewer.jni.rewriteGifSource
 import com.hippo.unifile.UniFile
@@ -48,16 +51,26 @@ import java.nio.ByteBuffer
 class Image private constructor(
     private val image: CoilImage,
     private val src: ImageSource? = null,
+    val region: ImageRegion? = null,
 ) {
     private var mBitmap: Bitmap? = null
     private var mCanvas: Canvas? = null
 
+    // Last frame as uploaded, to find what next frame changed
+    private var mLastBitmap: Bitmap? = null
+    private val mDirty = IntArray(4)
+
     val animated get() = image is DrawableImage && image.drawable is Animatable
     val delay get() = if (animated) 40 else 0
     val isOpaque get() = false
     val width get() = image.width
     val height get() = image.height
-    var frameUpdateAllowed = true
+
+    // Decoded pixels, plus the frame buffers animated images are drawn into
+    val byteCount = when (image) {
+        is BitmapImage -> image.bitmap.allocationByteCount
+        else -> image.size.toInt() + if (animated) width * height * 8 else 0
+    }
     var isRecycled = false
         private set
     var started = false
@@ -74,8 +87,13 @@ class Image private constructor(
                 mCanvas = null
                 mBitmap?.recycle()
                 mBitmap = null
+                mLastBitmap?.recycle()
+                mLastBitmap = null
+            }
+            is BitmapImage -> {
+                image.bitmap.recycle()
+                region?.recycle()
             }
-            is BitmapImage -> image.bitmap.recycle()
         }
         isRecycled = true
     }
@@ -84,22 +102,40 @@ class Image private constructor(
         if (mBitmap != null) return
         mBitmap = createBitmap(width, height)
         mCanvas = Canvas(mBitmap!!)
+        drawFrame()
+        mLastBitmap = mBitmap!!.copy(Bitmap.Config.ARGB_8888, true)
+    }
+
+    private fun drawFrame() {
+        mCanvas!!.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+        image.draw(mCanvas!!)
     }
 
-    private fun updateBitmap() {
-        if (frameUpdateAllowed) {
-            frameUpdateAllowed = false
+    /**
+     * Draw the current frame of an animated image.
+     *
+     * @param dirty receives the region changed since last call
+     * @return false if nothing changed
+     */
+    @Synchronized
+    fun updateFrame(dirty: Rect): Boolean {
+        if (isRecycled || image !is DrawableImage) return false
+        if (mBitmap == null) {
             prepareBitmap()
-            mCanvas!!.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
-            image.draw(mCanvas!!)
+            dirty.set(0, 0, width, height)
+            return true
         }
+        drawFrame()
+        if (!nativeDiffFrame(mBitmap!!, mLastBitmap!!, mDirty)) return false
+        dirty.set(mDirty[0], mDirty[1], mDirty[2], mDirty[3])
+        return true
     }
 
     fun texImage(init: Boolean, offsetX: Int, offsetY: Int, width: Int, height: Int) {
         val bitmap = if (image is BitmapImage) {
             image.bitmap
         } else {
-            updateBitmap()
+            prepareBitmap()
             mBitmap!!
         }
         nativeTexImage(
@@ -137,8 +173,20 @@ class Image private constructor(
             }
         }
 
+        private fun decodeRegion(src: ImageSource): Image? {
+            val (base, region) = ImageRegion.decode {
+                when (src) {
+                    is UniFileSource -> ParcelFileDescriptor.AutoCloseInputStream(src.source.openFileDescriptor("r"))
+                    is ByteBufferSource -> ByteBufferInputStream(src.source.duplicate())
+                }
+            } ?: return null
+            src.close()
+            return Image(base.asImage(), null, region)
+        }
+
         suspend fun decode(src: ImageSource): Image? {
             return runCatching {
+                runCatching { decodeRegion(src) }.onFailure { it.printStackTrace() }.getOrNull()?.let { return it }
                 val image = when (src) {
                     is UniFileSource -> {
                         if (!isAtLeastU) {
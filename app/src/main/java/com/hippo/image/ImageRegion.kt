@@ -0,0 +1,98 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.image
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Rect
+import com.hippo.util.isAtLeastS
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+/**
+ * Full resolution access to a page too large to decode at once.
+ * The [Image] holding it is decoded at [sampleSize], regions are decoded on demand.
+ */
+class ImageRegion private constructor(private val decoder: BitmapRegionDecoder, val sampleSize: Int) {
+    val width = decoder.width
+    val height = decoder.height
+
+    /**
+     * @param rect region in full resolution
+     */
+    fun decode(rect: Rect, sampleSize: Int): Bitmap? = runCatching {
+        decoder.decodeRegion(rect, BitmapFactory.Options().apply { inSampleSize = sampleSize })
+    }.onFailure {
+        it.printStackTrace()
+    }.getOrNull()
+
+    fun recycle() = decoder.recycle()
+
+    companion object {
+        // Pages larger than this are decoded by region
+        private const val TILED_PIXELS = 4096 * 4096
+
+        // Subsampled base is at most this large
+        private const val BASE_PIXELS = 2048 * 2048
+
+        private val SUPPORTED_TYPES = arrayOf("image/jpeg", "image/png", "image/webp")
+
+        /**
+         * @param open opens the encoded page from start, called twice
+         * @return the base bitmap and region, null if the page should be decoded as a whole
+         */
+        fun decode(open: () -> InputStream): Pair<Bitmap, ImageRegion>? {
+            val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            open().use { BitmapFactory.decodeStream(it, null, bounds) }
+            val width = bounds.outWidth
+            val height = bounds.outHeight
+            if (bounds.outMimeType !in SUPPORTED_TYPES || width.toLong() * height <= TILED_PIXELS) return null
+            val decoder = open().use {
+                if (isAtLeastS) {
+                    BitmapRegionDecoder.newInstance(it)
+                } else {
+                    @Suppress("DEPRECATION")
+                    BitmapRegionDecoder.newInstance(it, false)
+                }
+            } ?: return null
+            var sampleSize = 1
+            while ((width / sampleSize).toLong() * (height / sampleSize) > BASE_PIXELS) sampleSize *= 2
+            val region = ImageRegion(decoder, sampleSize)
+            val base = region.decode(Rect(0, 0, width, height), sampleSize)
+            if (base == null) {
+                region.recycle()
+                return null
+            }
+            return base to region
+        }
+    }
+}
+
+internal class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+    override fun read() = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (!buffer.hasRemaining()) return -1
+        val count = minOf(len, buffer.remaining())
+        buffer.get(b, off, count)
+        return count
+    }
+
+    override fun available() = buffer.remaining()
+}
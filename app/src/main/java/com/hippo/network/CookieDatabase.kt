@@ -28,6 +28,8 @@ import androidx.room.Query
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.Update
+import androidx.room.withTransaction
+import com.hippo.util.BatchedWriter
 import okhttp3.Cookie as OkHttpCookie
 
 @Entity(tableName = "OK_HTTP_3_COOKIE")
@@ -85,6 +87,9 @@ abstract class CookiesDatabase : RoomDatabase() {
     abstract fun cookiesDao(): CookiesDao
 }
 
+/**
+ * Writes are queued and applied in batches, each batch in one transaction.
+ */
 internal class CookieDatabase(context: Context, name: String) {
     private val cookiesList by lazy {
         val now = System.currentTimeMillis()
@@ -96,6 +101,7 @@ internal class CookieDatabase(context: Context, name: String) {
         }.toMutableList()
     }
     private val db = Room.databaseBuilder(context, CookiesDatabase::class.java, name).build()
+    private val writer = BatchedWriter<() -> Unit>({ db.withTransaction(it) }) { it() }
 
     val allCookies by lazy {
         hashMapOf<String, CookieSet>().also { map ->
@@ -109,28 +115,38 @@ internal class CookieDatabase(context: Context, name: String) {
     private fun findCookieWithOkHttpCookies(cookie: OkHttpCookie): Cookie? = cookiesList.find { it.name == cookie.name && it.domain == cookie.domain && it.value == cookie.value }
 
     fun add(cookie: OkHttpCookie) {
-        val c = cookie.toCookie()
-        c.id = db.cookiesDao().insert(c)
-        cookiesList.add(c)
+        writer.send {
+            val c = cookie.toCookie()
+            c.id = db.cookiesDao().insert(c)
+            cookiesList.add(c)
+        }
     }
 
     fun update(from: OkHttpCookie, to: OkHttpCookie) {
-        val origin = findCookieWithOkHttpCookies(from) ?: return
-        val new = to.toCookie(origin.id)
-        cookiesList.remove(origin)
-        cookiesList.add(new)
-        db.cookiesDao().update(new)
+        writer.send {
+            findCookieWithOkHttpCookies(from)?.let { origin ->
+                val new = to.toCookie(origin.id)
+                cookiesList.remove(origin)
+                cookiesList.add(new)
+                db.cookiesDao().update(new)
+            }
+        }
     }
 
     fun remove(cookie: OkHttpCookie) {
-        val origin = findCookieWithOkHttpCookies(cookie) ?: return
-        db.cookiesDao().delete(origin)
-        cookiesList.remove(origin)
+        writer.send {
+            findCookieWithOkHttpCookies(cookie)?.let { origin ->
+                db.cookiesDao().delete(origin)
+                cookiesList.remove(origin)
+            }
+        }
     }
 
     fun clear() {
-        db.clearAllTables()
-        cookiesList.clear()
+        writer.send {
+            db.clearAllTables()
+            cookiesList.clear()
+        }
     }
 }
 
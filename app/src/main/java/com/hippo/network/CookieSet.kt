@@ -16,10 +16,17 @@
 package com.hippo.network
 
 import okhttp3.Cookie
-import okhttp3.HttpUrl
 
-internal class CookieSet {
-    private val map: MutableMap<Key, Cookie> = HashMap()
+/**
+ * Cookies of one domain. Only modify a [copy] of a published set, readers do not lock.
+ */
+internal class CookieSet private constructor(private val map: MutableMap<Key, Cookie>) {
+    constructor() : this(HashMap())
+
+    val cookies: Collection<Cookie>
+        get() = map.values
+
+    fun copy() = CookieSet(HashMap(map))
 
     /**
      * Adds a cookie to this `CookieSet`.
@@ -35,22 +42,7 @@ internal class CookieSet {
      */
     fun remove(cookie: Cookie): Cookie? = map.remove(Key(cookie))
 
-    /**
-     * Get cookies for the url. Fill `accepted` and `expired`.
-     */
-    operator fun get(url: HttpUrl, accepted: MutableList<Cookie>, expired: MutableList<Cookie>) {
-        val now = System.currentTimeMillis()
-        val iterator = map.entries.iterator()
-        while (iterator.hasNext()) {
-            val cookie = iterator.next().value
-            if (cookie.expiresAt <= now) {
-                iterator.remove()
-                expired.add(cookie)
-            } else if (cookie.matches(url)) {
-                accepted.add(cookie)
-            }
-        }
-    }
+    fun isEmpty() = map.isEmpty()
 
     fun get(name: String, domain: String, path: String) = map[Key(name, domain, path)]
     internal data class Key(
@@ -86,6 +86,51 @@ internal object DocumentsContractApi21 {
         return results.toTypedArray<Uri>()
     }
 
+    class ChildDocument(val uri: Uri, val name: String?, val isDirectory: Boolean, val lastModified: Long)
+
+    fun listChildren(context: Context, self: Uri): List<ChildDocument> {
+        val childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
+            self,
+            DocumentsContract.getDocumentId(self),
+        )
+        val results = ArrayList<ChildDocument>()
+        runCatching {
+            context.contentResolver.query(
+                childrenUri,
+                arrayOf(
+                    DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                    DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                    DocumentsContract.Document.COLUMN_MIME_TYPE,
+                    DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                ),
+                null,
+                null,
+                null,
+            ).use {
+                if (null != it) {
+                    while (it.moveToNext()) {
+                        val documentUri = DocumentsContract.buildDocumentUriUsingTree(
+                            self,
+                            it.getString(0),
+                        )
+                        val lastModified = if (it.isNull(3)) -1L else it.getLong(3)
+                        results.add(
+                            ChildDocument(
+                                documentUri,
+                                it.getString(1),
+                                DocumentsContract.Document.MIME_TYPE_DIR == it.getString(2),
+                                lastModified,
+                            ),
+                        )
+                    }
+                }
+            }
+        }.onFailure {
+            Utils.throwIfFatal(it)
+        }
+        return results
+    }
+
     fun renameTo(context: Context, self: Uri, displayName: String): Uri? = try {
         DocumentsContract.renameDocument(context.contentResolver, self, displayName)
     } catch (e: Throwable) {
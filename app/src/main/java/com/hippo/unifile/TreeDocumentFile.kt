@@ -185,6 +185,11 @@ internal class TreeDocumentFile : UniFile {
         return result.map { TreeDocumentFile(this, mContext, it, getFilenameForUri(it)) }.toTypedArray()
     }
 
+    // All attributes come with the children query
+    override fun listEntries(): List<Entry> = DocumentsContractApi21.listChildren(mContext, uri).map {
+        Entry(TreeDocumentFile(this, mContext, it.uri, it.name), it.name, it.isDirectory, it.lastModified)
+    }
+
     override fun listFiles(filter: FilenameFilter?): Array<UniFile> {
         if (filter == null) {
             return listFiles()
@@ -213,6 +213,16 @@ abstract class UniFile internal constructor(private val parent: UniFile?) {
      */
     abstract fun listFiles(filter: FilenameFilter?): Array<UniFile>?
 
+    /**
+     * Returns the files contained in the directory represented by this file,
+     * along with their names, types and last modified times.
+     *
+     * @return a list of entries or `null`.
+     */
+    open fun listEntries(): List<Entry>? = listFiles()?.map { Entry(it, it.name, it.isDirectory, it.lastModified()) }
+
+    class Entry(val file: UniFile, val name: String?, val isDirectory: Boolean, val lastModified: Long)
+
     /**
      * Test there is a file with the display name in the directory.
      *
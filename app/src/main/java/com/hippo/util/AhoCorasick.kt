@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.util
+
+/**
+ * Immutable Aho-Corasick automaton, tells whether a text contains any of the patterns in one pass.
+ */
+class AhoCorasick(patterns: Collection<String>) {
+    private val mGoto = ArrayList<HashMap<Char, Int>>()
+    private val mFail: IntArray
+    private val mMatch: BooleanArray
+
+    init {
+        val match = ArrayList<Boolean>()
+        mGoto.add(HashMap())
+        match.add(false)
+        for (pattern in patterns) {
+            var state = 0
+            for (c in pattern) {
+                state = mGoto[state].getOrPut(c) {
+                    mGoto.add(HashMap())
+                    match.add(false)
+                    mGoto.size - 1
+                }
+            }
+            match[state] = true
+        }
+        mMatch = match.toBooleanArray()
+        mFail = IntArray(mGoto.size)
+
+        // Breadth-first so that fail state of parent is ready
+        val queue = ArrayDeque<Int>()
+        mGoto[0].values.forEach { queue.addLast(it) }
+        while (queue.isNotEmpty()) {
+            val state = queue.removeFirst()
+            for ((c, next) in mGoto[state]) {
+                var fail = mFail[state]
+                while (fail != 0 && c !in mGoto[fail]) {
+                    fail = mFail[fail]
+                }
+                mFail[next] = mGoto[fail][c] ?: 0
+                mMatch[next] = mMatch[next] || mMatch[mFail[next]]
+                queue.addLast(next)
+            }
+        }
+    }
+
+    val isEmpty: Boolean
+        get() = mGoto[0].isEmpty() && !mMatch[0]
+
+    fun containsAny(text: CharSequence): Boolean {
+        if (mMatch[0]) return true
+        var state = 0
+        for (c in text) {
+            while (state != 0 && c !in mGoto[state]) {
+                state = mFail[state]
+            }
+            state = mGoto[state][c] ?: 0
+            if (mMatch[state]) return true
+        }
+        return false
+    }
+}
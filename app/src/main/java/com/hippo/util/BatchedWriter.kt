@@ -0,0 +1,63 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.util
+
+import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.channels.Channel
+
+/**
+ * Queued writes applied by one consumer, all writes queued meanwhile go into one [transaction].
+ * A failing write is skipped and a failing batch is dropped, the consumer keeps going.
+ *
+ * @param onBatch gets each batch and its duration in nanoseconds, committed or not
+ */
+@OptIn(DelicateCoroutinesApi::class)
+class BatchedWriter<T : Any>(
+    private val transaction: suspend (suspend () -> Unit) -> Unit,
+    private val onBatch: (List<T>, Long) -> Unit = { _, _ -> },
+    private val write: suspend (T) -> Unit,
+) {
+    private val queue = Channel<T>(Channel.UNLIMITED)
+
+    init {
+        launchIO {
+            for (first in queue) {
+                val start = System.nanoTime()
+                val batch = mutableListOf(first)
+                runSuspendCatching {
+                    transaction {
+                        var next: T? = first
+                        while (next != null) {
+                            val item = next
+                            runSuspendCatching { write(item) }.onFailure { it.printStackTrace() }
+                            // Take all queued meanwhile
+                            next = queue.tryReceive().getOrNull()?.also { batch.add(it) }
+                        }
+                    }
+                }.onFailure {
+                    it.printStackTrace()
+                }
+                onBatch(batch, System.nanoTime() - start)
+            }
+        }
+    }
+
+    fun send(item: T) {
+        queue.trySend(item)
+    }
+}
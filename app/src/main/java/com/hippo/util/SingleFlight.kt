@@ -0,0 +1,52 @@
+/*
+ * Copyright 2026 Moedog
+ *
+ * This file is part of EhViewer
+ *
+ * EhViewer is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * EhViewer is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EhViewer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hippo.util
+
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+
+/**
+ * Runs at most one job per key, callers of a key in flight share its job.
+ */
+class SingleFlight<K, V>(
+    private val scope: CoroutineScope,
+    private val context: CoroutineContext = EmptyCoroutineContext,
+) {
+    private val jobs = hashMapOf<K, Deferred<V>>()
+
+    fun launch(key: K, block: suspend () -> V): Deferred<V> {
+        val job = synchronized(jobs) {
+            jobs.getOrPut(key) {
+                // Lazy so that the job can not finish before it is put into the map
+                scope.async(context, CoroutineStart.LAZY) {
+                    try {
+                        block()
+                    } finally {
+                        synchronized(jobs) { jobs.remove(key) }
+                    }
+                }
+            }
+        }
+        job.start()
+        return job
+    }
+}